@@ -0,0 +1,35 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size bit set with lock-free atomic set operation.
+ */
+class AtomicBitSet {
+
+    private final AtomicLongArray mWords;
+
+    public AtomicBitSet(int size) {
+        mWords = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Sets bit.
+     * @param index - bit index
+     * @return true if bit was clear before
+     */
+    public boolean set(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = mWords.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!mWords.compareAndSet(word, current, current | mask));
+        return true;
+    }
+
+    public boolean get(int index) {
+        return (mWords.get(index >>> 6) & (1L << index)) != 0;
+    }
+}
@@ -0,0 +1,331 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Search for closest exits of many entrances into one labyrinth, started by PathFinder.searchAll().
+ *
+ * Room distances are measured from the labyrinth start, so distance of closest exit reachable from a room
+ * does not depend on entrance it was reached from. Every room reachable from any entrance is visited once,
+ * and its closest exit distance is memoized. Room is resolved when all its corridors are, by thread which
+ * resolved the last of them, so entrances sharing rooms share their work and no thread ever waits for another
+ * one. Resolved rooms are walked up iteratively, so labyrinth depth is not limited by thread stack.
+ * Rooms can not be pruned, as every entrance has its own bound. Rooms on a cycle are never resolved,
+ * so when the last visit is finished with entrances still waiting, the search fails.
+ * Search stopped by timeout or by cancelling its future drops rooms not visited yet, and entrances
+ * not resolved then get partial result, with the closest exit found so far.
+ */
+class BatchSearch {
+
+    /** Distance reported for rooms with no reachable exit */
+    private static final double NO_EXIT_DISTANCE = ExitDistanceBound.INITIAL_DISTANCE;
+
+    /** Thread pool running this search tasks */
+    private final Executor mExecutor;
+    /** State of every room visited so far */
+    private final ConcurrentHashMap<RoomInterface, RoomState> mRooms;
+    /** State of every entrance, in order of entrances */
+    private final List<RoomState> mEntrances;
+    /** Number of visits submitted and not finished yet, plus one while entrances are submitted */
+    private final AtomicInteger mActiveVisits;
+    /** Number of rooms visited during search */
+    private final LongAdder mVisitedRooms;
+    /** Number of tasks submitted to thread pool during search */
+    private final LongAdder mSubmittedTasks;
+    /** Search start time, from System.nanoTime() */
+    private long mStartNanos;
+    /** Max search time, 0 if not limited */
+    private long mTimeoutNanos;
+    /** True if rooms not visited yet should be dropped */
+    private volatile boolean mStopped;
+
+    public BatchSearch(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("Executor must not be null");
+        }
+        mExecutor = executor;
+        mRooms = new ConcurrentHashMap<RoomInterface, RoomState>();
+        mEntrances = new ArrayList<RoomState>();
+        mActiveVisits = new AtomicInteger();
+        mVisitedRooms = new LongAdder();
+        mSubmittedTasks = new LongAdder();
+    }
+
+    /**
+     * @param timeoutNanos - max search time, 0 if not limited
+     */
+    void setTimeoutNanos(long timeoutNanos) {
+        mTimeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Starts search from all entrances.
+     * @param entrances - entrances to the labyrinth
+     * @return future completed with result of every entrance, in order of entrances. Room and task counters
+     * of every result are those of the whole batch. Completed exceptionally with IllegalArgumentException
+     * if labyrinth has cycles
+     */
+    CompletableFuture<List<SearchResult>> start(List<RoomInterface> entrances) {
+        mStartNanos = System.nanoTime();
+        // futures are listed before any room is visited, so failure of any visit reaches all of them
+        List<RoomInterface> newEntrances = new ArrayList<RoomInterface>(entrances.size());
+        List<RoomState> newStates = new ArrayList<RoomState>(entrances.size());
+        for (RoomInterface entrance : entrances) {
+            RoomState state = new RoomState();
+            RoomState previous = mRooms.putIfAbsent(entrance, state);
+            if (previous != null) {
+                state = previous;
+            } else {
+                newEntrances.add(entrance);
+                newStates.add(state);
+            }
+            mEntrances.add(state);
+        }
+        CompletableFuture<?>[] distances = new CompletableFuture<?>[mEntrances.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = mEntrances.get(i).mDistance;
+        }
+        CompletableFuture<List<SearchResult>> result = CompletableFuture.allOf(distances)
+                .thenApply(new Function<Void, List<SearchResult>>() {
+                    @Override
+                    public List<SearchResult> apply(Void ignored) {
+                        long elapsedNanos = System.nanoTime() - mStartNanos;
+                        List<SearchResult> results = new ArrayList<SearchResult>(mEntrances.size());
+                        for (RoomState state : mEntrances) {
+                            double shortestDistance = state.mDistance.join();
+                            results.add(new SearchResult(shortestDistance != NO_EXIT_DISTANCE, shortestDistance,
+                                    mVisitedRooms.sum(), mSubmittedTasks.sum(), 0L, 0L, elapsedNanos,
+                                    state.mPartial, Collections.<RoomInterface>emptyList(),
+                                    Collections.<RoomInterface>emptyList()));
+                        }
+                        return results;
+                    }
+                });
+        // cancelling or failing result stops the search as well
+        result.whenComplete(new BiConsumer<List<SearchResult>, Throwable>() {
+            @Override
+            public void accept(List<SearchResult> results, Throwable throwable) {
+                if (throwable != null) {
+                    mStopped = true;
+                }
+            }
+        });
+        // hold search open until all entrances are submitted
+        mActiveVisits.incrementAndGet();
+        for (int i = 0; i < newEntrances.size(); i++) {
+            // entrances have no parent, and are visited first
+            submit(newEntrances.get(i), newStates.get(i), Double.NEGATIVE_INFINITY);
+        }
+        finishVisit();
+        return result;
+    }
+
+    /**
+     * Returns memoized state of room, submitting its visit if room was not seen before.
+     * @param room - corridor of visited room
+     * @param parentDistance - distance of visited room, priority of new visit
+     * @return room state
+     */
+    private RoomState getRoomState(RoomInterface room, double parentDistance) {
+        RoomState state = mRooms.get(room);
+        if (state != null) {
+            return state;
+        }
+        state = new RoomState();
+        RoomState previous = mRooms.putIfAbsent(room, state);
+        if (previous != null) {
+            return previous;
+        }
+        submit(room, state, parentDistance);
+        return state;
+    }
+
+    private void submit(RoomInterface room, RoomState state, double priority) {
+        mSubmittedTasks.increment();
+        mActiveVisits.incrementAndGet();
+        try {
+            mExecutor.execute(new VisitRoomTask(room, state, priority));
+        } catch (RuntimeException e) {
+            // rejected task never runs
+            mActiveVisits.decrementAndGet();
+            fail(e);
+        }
+    }
+
+    /**
+     * Fails whole search - rooms waiting for failed room would never be resolved.
+     * @param throwable - cause of failure
+     */
+    private void fail(Throwable throwable) {
+        mStopped = true;
+        for (RoomState state : mEntrances) {
+            state.mDistance.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Checks if search should be stopped. Stops it when time limit is exceeded.
+     * @return true if rooms not visited yet should be dropped
+     */
+    private boolean shouldStop() {
+        if (!mStopped && mTimeoutNanos > 0 && System.nanoTime() - mStartNanos >= mTimeoutNanos) {
+            mStopped = true;
+        }
+        return mStopped;
+    }
+
+    /**
+     * Ends one visit. After the last one every room which can be resolved is resolved, so entrances
+     * still waiting are on or behind a cycle, or their rooms were dropped by stopped search.
+     */
+    private void finishVisit() {
+        if (mActiveVisits.decrementAndGet() != 0) {
+            return;
+        }
+        for (RoomState state : mEntrances) {
+            if (state.mDistance.isDone()) {
+                continue;
+            }
+            if (!mStopped) {
+                fail(new IllegalArgumentException("Labyrinth has cycles"));
+                return;
+            }
+            state.mPartial = true;
+            state.mDistance.complete(state.getClosestExitDistance());
+        }
+    }
+
+    /**
+     * Drops one pending corridor of room. Room whose last corridor was resolved is resolved as well,
+     * and so are its parents waiting only for it - walked iteratively, from local stack.
+     * @param state - room whose corridor was resolved, or whose visit was finished
+     */
+    private void release(RoomState state) {
+        if (state.mPending.decrementAndGet() != 0) {
+            return;
+        }
+        ArrayDeque<RoomState> resolved = new ArrayDeque<RoomState>();
+        resolved.push(state);
+        while (!resolved.isEmpty()) {
+            RoomState current = resolved.pop();
+            double closest;
+            List<RoomState> parents;
+            synchronized (current) {
+                closest = current.mClosestExitDistance;
+                parents = current.mParents;
+                current.mParents = null;
+            }
+            current.mDistance.complete(closest);
+            for (RoomState parent : parents) {
+                parent.offer(closest);
+                if (parent.mPending.decrementAndGet() == 0) {
+                    resolved.push(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closest exit distance of room, resolved when all its corridors are resolved.
+     */
+    private static final class RoomState {
+
+        /** Completed with closest exit distance when room is resolved */
+        private final CompletableFuture<Double> mDistance = new CompletableFuture<Double>();
+        /** Number of corridors not resolved yet, plus one until room visit is finished */
+        private final AtomicInteger mPending = new AtomicInteger(1);
+        /** True if room was not resolved before search was stopped, set before mDistance is completed */
+        private volatile boolean mPartial;
+        /** Closest exit distance among resolved corridors. Guarded by this */
+        private double mClosestExitDistance = NO_EXIT_DISTANCE;
+        /** Rooms waiting for this one, null once it is resolved. Guarded by this */
+        private List<RoomState> mParents = new ArrayList<RoomState>(1);
+
+        synchronized void offer(double distance) {
+            mClosestExitDistance = Math.min(mClosestExitDistance, distance);
+        }
+
+        /**
+         * Makes parent wait for this room, unless it is resolved already.
+         * @param parent - visited room leading to this one
+         * @return true if parent waits, false if this room is resolved, and its distance can be read
+         */
+        synchronized boolean addParent(RoomState parent) {
+            if (mParents == null) {
+                return false;
+            }
+            mParents.add(parent);
+            return true;
+        }
+
+        synchronized double getClosestExitDistance() {
+            return mClosestExitDistance;
+        }
+    }
+
+    /**
+     * Task visiting one room. Room is resolved by this task if it has no unresolved corridors,
+     * otherwise by task resolving the last of them.
+     */
+    private class VisitRoomTask extends PrioritizedTask {
+
+        private final RoomInterface room;
+        private final RoomState state;
+
+        public VisitRoomTask(RoomInterface room, RoomState state, double priority) {
+            super(priority);
+            this.room = room;
+            this.state = state;
+        }
+
+        @Override
+        public void run() {
+            try {
+                visit();
+            } finally {
+                finishVisit();
+            }
+        }
+
+        private void visit() {
+            if (shouldStop()) {
+                // search is over - drop this room
+                return;
+            }
+            mVisitedRooms.increment();
+            try {
+                if (room.isExit()) {
+                    state.offer(room.getDistanceFromStart());
+                } else {
+                    double distance = room.getDistanceFromStart();
+                    RoomInterface[] corridors = Corridors.read(room);
+                    int corridorCount = Corridors.count(room, corridors);
+                    for (int i = 0; i < corridorCount; i++) {
+                        RoomInterface corridor = Corridors.get(room, corridors, i);
+                        if (corridor == null) {
+                            continue;
+                        }
+                        RoomState corridorState = getRoomState(corridor, distance);
+                        state.mPending.incrementAndGet();
+                        if (!corridorState.addParent(state)) {
+                            state.offer(corridorState.getClosestExitDistance());
+                            state.mPending.decrementAndGet();
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            }
+            release(state);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * RoomInterface decorator reading room state through RoomCache, so expensive room methods are called once
+ * per room while it stays cached. Corridors are decorators as well.
+ */
+class CachedRoom implements RoomInterface {
+
+    private final RoomInterface mRoom;
+    private final RoomCache mCache;
+
+    CachedRoom(RoomInterface room, RoomCache cache) {
+        mRoom = room;
+        mCache = cache;
+    }
+
+    @Override
+    public boolean isExit() {
+        return mCache.get(mRoom).isExit();
+    }
+
+    @Override
+    public double getDistanceFromStart() {
+        return mCache.get(mRoom).getDistanceFromStart();
+    }
+
+    /**
+     * @return cached corridors, shared by all calls - must not be modified
+     */
+    @Override
+    public RoomInterface[] corridors() {
+        RoomCache.RoomData data = mCache.get(mRoom);
+        mCache.prefetch(data);
+        return data.getCorridors();
+    }
+
+    /**
+     * @return decorated room
+     */
+    public RoomInterface getRoom() {
+        return mRoom;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CachedRoom)) return false;
+        CachedRoom another = (CachedRoom) o;
+        return mCache == another.mCache && mRoom.equals(another.mRoom);
+    }
+
+    @Override
+    public int hashCode() {
+        return mRoom.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CachedRoom{" +
+                "room=" + mRoom +
+                '}';
+    }
+}
@@ -0,0 +1,251 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Cache of search results placed in front of PathFinder.
+ *
+ * Results are keyed by entrance and labyrinth version, which caller changes after every labyrinth change.
+ * Entrances are compared by equals(), which is identity for rooms not overriding it, such as CustomRoom.
+ * Cache keeps at most given number of results, evicting least recently used one. Concurrent requests
+ * for the same key share one search. Results of cancelled, failed or stopped early searches are not kept.
+ */
+class CachingPathFinder implements PathFinderInterface {
+
+    /** Labyrinth version used before first setLabyrinthVersion() call */
+    private static final long INITIAL_VERSION = 0L;
+
+    private final PathFinder mPathFinder;
+    private final int mMaxSize;
+    /** Results by entrance and version, in access order. Guarded by itself */
+    private final LinkedHashMap<Key, CompletableFuture<SearchResult>> mResults;
+    private final LongAdder mHits;
+    private final LongAdder mMisses;
+    private final LongAdder mEvictions;
+
+    /** Labyrinth version used by entranceToTheLabyrinth() */
+    private volatile long mLabyrinthVersion;
+    /** Result of search started by last entranceToTheLabyrinth() call */
+    private volatile CompletableFuture<SearchResult> mCurrentResult;
+    /** Observer notified about search finish */
+    private Runnable mObserver;
+
+    /**
+     * @param pathFinder - path finder running searches which are not cached
+     * @param maxSize - max number of cached results
+     */
+    public CachingPathFinder(PathFinder pathFinder, int maxSize) {
+        if (pathFinder == null) {
+            throw new NullPointerException("PathFinder must not be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive, got " + maxSize);
+        }
+        mPathFinder = pathFinder;
+        mMaxSize = maxSize;
+        mResults = new LinkedHashMap<Key, CompletableFuture<SearchResult>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<SearchResult>> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        mHits = new LongAdder();
+        mMisses = new LongAdder();
+        mEvictions = new LongAdder();
+        mLabyrinthVersion = INITIAL_VERSION;
+    }
+
+    /**
+     * Sets labyrinth version used by entranceToTheLabyrinth(). Must be changed after every labyrinth change,
+     * so results of previous version are not returned.
+     * @param version - labyrinth version
+     */
+    public void setLabyrinthVersion(long version) {
+        mLabyrinthVersion = version;
+    }
+
+    /**
+     * Returns cached result, or starts new search if there is none. Search started by other thread for
+     * the same entrance and version is shared instead of being started again.
+     * @param entrance - entrance to the labyrinth
+     * @param labyrinthVersion - labyrinth version, changed by caller after every labyrinth change
+     * @return future completed with search result. Cancelling it does not cancel shared search
+     */
+    public CompletableFuture<SearchResult> search(RoomInterface entrance, long labyrinthVersion) {
+        if (entrance == null) {
+            throw new NullPointerException("Entrance must not be null");
+        }
+        final Key key = new Key(entrance, labyrinthVersion);
+        final CompletableFuture<SearchResult> result;
+        synchronized (mResults) {
+            CompletableFuture<SearchResult> cached = mResults.get(key);
+            if (cached != null) {
+                mHits.increment();
+                return cached.thenApply(Function.<SearchResult>identity());
+            }
+            mMisses.increment();
+            result = new CompletableFuture<SearchResult>();
+            mResults.put(key, result);
+        }
+        // search is started outside the lock, requests for other keys are not blocked by it
+        try {
+            mPathFinder.search(entrance).whenComplete(new BiConsumer<SearchResult, Throwable>() {
+                @Override
+                public void accept(SearchResult searchResult, Throwable throwable) {
+                    if (throwable != null || searchResult.isPartial()) {
+                        remove(key, result);
+                    }
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(searchResult);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            remove(key, result);
+            result.completeExceptionally(e);
+        }
+        return result.thenApply(Function.<SearchResult>identity());
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        synchronized (mResults) {
+            mResults.clear();
+        }
+    }
+
+    /**
+     * @return number of cached results, including searches still running
+     */
+    public int size() {
+        synchronized (mResults) {
+            return mResults.size();
+        }
+    }
+
+    /**
+     * @return number of requests served from cache or by shared running search
+     */
+    public long getHitCount() {
+        return mHits.sum();
+    }
+
+    /**
+     * @return number of requests which started new search
+     */
+    public long getMissCount() {
+        return mMisses.sum();
+    }
+
+    /**
+     * @return number of results removed to keep cache size limit
+     */
+    public long getEvictionCount() {
+        return mEvictions.sum();
+    }
+
+    @Override
+    public void setMaxThreads(int i) {
+        mPathFinder.setMaxThreads(i);
+    }
+
+    /**
+     * Searches labyrinth of version set by setLabyrinthVersion(). Observer is notified when result is ready,
+     * at once by calling thread if result is cached.
+     */
+    @Override
+    public void entranceToTheLabyrinth(RoomInterface mi) {
+        CompletableFuture<SearchResult> result = search(mi, mLabyrinthVersion);
+        mCurrentResult = result;
+        result.thenRun(new Runnable() {
+            @Override
+            public void run() {
+                notifyObserver();
+            }
+        });
+    }
+
+    @Override
+    public void registerObserver(Runnable code) {
+        mObserver = code;
+    }
+
+    /**
+     * @return true if last search is finished and found an exit
+     */
+    @Override
+    public boolean exitFound() {
+        SearchResult result = getCurrentResult();
+        return result != null && result.isExitFound();
+    }
+
+    /**
+     * @return shortest distance to exit found by last search, Double.MAX_VALUE if it is not finished
+     * or found no exit
+     */
+    @Override
+    public double getShortestDistanceToExit() {
+        SearchResult result = getCurrentResult();
+        return result == null ? ExitDistanceBound.INITIAL_DISTANCE : result.getShortestDistanceToExit();
+    }
+
+    private SearchResult getCurrentResult() {
+        CompletableFuture<SearchResult> result = mCurrentResult;
+        if (result == null || !result.isDone() || result.isCompletedExceptionally()) {
+            return null;
+        }
+        return result.join();
+    }
+
+    private void remove(Key key, CompletableFuture<SearchResult> result) {
+        synchronized (mResults) {
+            mResults.remove(key, result);
+        }
+    }
+
+    private void notifyObserver() {
+        if (mObserver == null) {
+            throw new NullPointerException("Observer object must be provided");
+        } else {
+            mObserver.run();
+        }
+    }
+
+    /**
+     * Cache key - entrance and labyrinth version.
+     */
+    private static final class Key {
+
+        private final RoomInterface mEntrance;
+        private final long mVersion;
+
+        Key(RoomInterface entrance, long version) {
+            mEntrance = entrance;
+            mVersion = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key another = (Key) o;
+            return mVersion == another.mVersion && mEntrance.equals(another.mEntrance);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mEntrance.hashCode() + (int) (mVersion ^ (mVersion >>> 32));
+        }
+    }
+}
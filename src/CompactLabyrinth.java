@@ -0,0 +1,142 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+/**
+ * Immutable labyrinth kept in primitive arrays.
+ *
+ * Rooms are identified by int ids. Corridors are stored in compressed sparse row form:
+ * corridors of room id are corridorTargets[corridorOffsets[id]] ... corridorTargets[corridorOffsets[id + 1] - 1].
+ * Arrays passed to constructor are not copied and must not be modified afterwards.
+ */
+class CompactLabyrinth implements LabyrinthGraph {
+
+    /** Distance from entrance of every room */
+    private final double[] mDistances;
+    /** Ids of rooms which are exits */
+    private final BitSet mExits;
+    /** Start index of every room corridors in mCorridorTargets, with extra end entry */
+    private final int[] mCorridorOffsets;
+    /** Target room ids of all corridors */
+    private final int[] mCorridorTargets;
+
+    public CompactLabyrinth(double[] distances, BitSet exits, int[] corridorOffsets, int[] corridorTargets) {
+        if (distances == null || exits == null || corridorOffsets == null || corridorTargets == null) {
+            throw new NullPointerException("Labyrinth arrays must not be null");
+        }
+        if (corridorOffsets.length != distances.length + 1) {
+            throw new IllegalArgumentException("corridorOffsets must have one entry per room plus one");
+        }
+        if (corridorOffsets[0] != 0 || corridorOffsets[distances.length] != corridorTargets.length) {
+            throw new IllegalArgumentException("corridorOffsets must start at 0 and end at corridor count");
+        }
+        mDistances = distances;
+        mExits = exits;
+        mCorridorOffsets = corridorOffsets;
+        mCorridorTargets = corridorTargets;
+    }
+
+    /**
+     * Builds compact copy of labyrinth reachable from given entrance. Entrance gets id 0.
+     * Rooms reachable by many corridors are stored once.
+     * @param entrance - entrance to the labyrinth
+     * @return compact labyrinth
+     */
+    public static CompactLabyrinth fromRoom(RoomInterface entrance) {
+        return fromRoom(entrance, new IdentityHashMap<RoomInterface, Integer>());
+    }
+
+    /**
+     * Builds compact copy of labyrinth reachable from given entrance, and reports id given to every room.
+     * @param entrance - entrance to the labyrinth
+     * @param ids - empty map, filled with id of every copied room
+     * @return compact labyrinth
+     */
+    static CompactLabyrinth fromRoom(RoomInterface entrance, IdentityHashMap<RoomInterface, Integer> ids) {
+        if (entrance == null) {
+            throw new NullPointerException("Entrance must not be null");
+        }
+        ArrayDeque<RoomInterface> roomsToVisit = new ArrayDeque<RoomInterface>();
+        double[] distances = new double[16];
+        BitSet exits = new BitSet();
+        int[] offsets = new int[17];
+        int[] targets = new int[16];
+        int corridorCount = 0;
+        ids.put(entrance, 0);
+        roomsToVisit.add(entrance);
+        // rooms are numbered in breadth first order, so room with id n is always n-th taken from queue
+        int id = 0;
+        while (!roomsToVisit.isEmpty()) {
+            RoomInterface room = roomsToVisit.poll();
+            if (id == distances.length) {
+                distances = Arrays.copyOf(distances, id * 2);
+                offsets = Arrays.copyOf(offsets, id * 2 + 1);
+            }
+            distances[id] = room.getDistanceFromStart();
+            if (room.isExit()) {
+                exits.set(id);
+            }
+            RoomInterface[] corridors = Corridors.read(room);
+            int roomCorridorCount = Corridors.count(room, corridors);
+            for (int i = 0; i < roomCorridorCount; i++) {
+                RoomInterface corridor = Corridors.get(room, corridors, i);
+                if (corridor == null) {
+                    continue;
+                }
+                Integer targetId = ids.get(corridor);
+                if (targetId == null) {
+                    targetId = ids.size();
+                    ids.put(corridor, targetId);
+                    roomsToVisit.add(corridor);
+                }
+                if (corridorCount == targets.length) {
+                    targets = Arrays.copyOf(targets, corridorCount * 2);
+                }
+                targets[corridorCount++] = targetId;
+            }
+            id++;
+            offsets[id] = corridorCount;
+        }
+        return new CompactLabyrinth(Arrays.copyOf(distances, id), exits,
+                Arrays.copyOf(offsets, id + 1), Arrays.copyOf(targets, corridorCount));
+    }
+
+    @Override
+    public int getRoomCount() {
+        return mDistances.length;
+    }
+
+    @Override
+    public double getDistanceFromStart(int room) {
+        return mDistances[room];
+    }
+
+    @Override
+    public boolean isExit(int room) {
+        return mExits.get(room);
+    }
+
+    @Override
+    public int getCorridorStart(int room) {
+        return mCorridorOffsets[room];
+    }
+
+    @Override
+    public int getCorridorEnd(int room) {
+        return mCorridorOffsets[room + 1];
+    }
+
+    @Override
+    public int getCorridorTarget(int corridor) {
+        return mCorridorTargets[corridor];
+    }
+
+    @Override
+    public CompactRoom getRoom(int room) {
+        if (room < 0 || room >= mDistances.length) {
+            throw new IndexOutOfBoundsException("No room with id " + room);
+        }
+        return new CompactRoom(this, room);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * RoomInterface view of a room of LabyrinthGraph, such as CompactLabyrinth or MappedLabyrinth.
+ */
+class CompactRoom implements RoomInterface {
+
+    private final LabyrinthGraph mLabyrinth;
+    private final int mId;
+
+    CompactRoom(LabyrinthGraph labyrinth, int id) {
+        mLabyrinth = labyrinth;
+        mId = id;
+    }
+
+    @Override
+    public boolean isExit() {
+        return mLabyrinth.isExit(mId);
+    }
+
+    @Override
+    public double getDistanceFromStart() {
+        return mLabyrinth.getDistanceFromStart(mId);
+    }
+
+    @Override
+    public RoomInterface[] corridors() {
+        int start = mLabyrinth.getCorridorStart(mId);
+        int end = mLabyrinth.getCorridorEnd(mId);
+        RoomInterface[] corridors = new RoomInterface[end - start];
+        for (int i = start; i < end; i++) {
+            corridors[i - start] = new CompactRoom(mLabyrinth, mLabyrinth.getCorridorTarget(i));
+        }
+        return corridors;
+    }
+
+    public LabyrinthGraph getLabyrinth() {
+        return mLabyrinth;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactRoom)) return false;
+        CompactRoom another = (CompactRoom) o;
+        return mId == another.mId && mLabyrinth == another.mLabyrinth;
+    }
+
+    @Override
+    public int hashCode() {
+        return mId;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactRoom{" +
+                "id=" + mId +
+                ", isExit=" + isExit() +
+                ", distance=" + getDistanceFromStart() +
+                '}';
+    }
+}
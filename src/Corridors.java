@@ -0,0 +1,44 @@
+/**
+ * Corridor access used by all labyrinth traversals. Corridors of IndexedRoom are read by index,
+ * without copying them to new array, corridors of other rooms are read by corridors().
+ *
+ * Usage: corridors = read(room), then get(room, corridors, i) for i below count(room, corridors).
+ */
+final class Corridors {
+
+    /** Returned by read() for IndexedRoom, whose corridors are then read by index */
+    static final RoomInterface[] INDEXED = new RoomInterface[0];
+
+    private Corridors() {
+    }
+
+    /**
+     * @param room - room whose corridors are read
+     * @return INDEXED for IndexedRoom, otherwise result of corridors(), which may be null
+     */
+    static RoomInterface[] read(RoomInterface room) {
+        return room instanceof IndexedRoom ? INDEXED : room.corridors();
+    }
+
+    /**
+     * @param room - room whose corridors are read
+     * @param corridors - value returned by read() for this room
+     * @return number of corridors
+     */
+    static int count(RoomInterface room, RoomInterface[] corridors) {
+        if (corridors == INDEXED) {
+            return ((IndexedRoom) room).getCorridorCount();
+        }
+        return corridors == null ? 0 : corridors.length;
+    }
+
+    /**
+     * @param room - room whose corridors are read
+     * @param corridors - value returned by read() for this room
+     * @param index - corridor index
+     * @return room the corridor leads to, may be null
+     */
+    static RoomInterface get(RoomInterface room, RoomInterface[] corridors, int index) {
+        return corridors == INDEXED ? ((IndexedRoom) room).getCorridor(index) : corridors[index];
+    }
+}
@@ -4,7 +4,7 @@ import java.util.Comparator;
 /**
  * Created by paweldylag on 06/11/15.
  */
-public class CustomRoom implements RoomInterface, Comparable {
+public class CustomRoom implements IndexedRoom, Comparable {
 
     private int id;
     private boolean isExit;
@@ -43,6 +43,16 @@ public class CustomRoom implements RoomInterface, Comparable {
         else return new RoomInterface[0];
     }
 
+    @Override
+    public int getCorridorCount() {
+        return corridors.size();
+    }
+
+    @Override
+    public RoomInterface getCorridor(int index) {
+        return corridors.get(index);
+    }
+
     public void addRoom(RoomInterface room) {
         this.corridors.add(room);
     }
@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free monotonic minimum of exit distances found during a search.
+ *
+ * The distance is kept as the bit pattern of a double inside an AtomicLong, so reads used for
+ * pruning are plain volatile loads and updates are done with CAS. The stored value never grows.
+ */
+class ExitDistanceBound {
+
+    /** Initial distance value, reported until first exit is found */
+    static final double INITIAL_DISTANCE = Double.MAX_VALUE;
+
+    /** Bit pattern of current shortest distance */
+    private final AtomicLong mDistanceBits;
+    /** Set after first exit was offered */
+    private volatile boolean mFound;
+
+    public ExitDistanceBound() {
+        mDistanceBits = new AtomicLong(Double.doubleToLongBits(INITIAL_DISTANCE));
+        mFound = false;
+    }
+
+    /**
+     * Offers new exit distance. Bound is updated only if given distance is shorter than current one.
+     * @param distance - exit distance from entrance
+     * @return true if bound was improved, false otherwise
+     */
+    public boolean offer(double distance) {
+        boolean improved = false;
+        long currentBits = mDistanceBits.get();
+        while (Double.compare(distance, Double.longBitsToDouble(currentBits)) < 0) {
+            if (mDistanceBits.compareAndSet(currentBits, Double.doubleToLongBits(distance))) {
+                improved = true;
+                break;
+            }
+            currentBits = mDistanceBits.get();
+        }
+        // any offer means that some exit exists, even if it does not improve the bound
+        if (!mFound) {
+            mFound = true;
+        }
+        return improved;
+    }
+
+    /**
+     * @return current shortest distance, or INITIAL_DISTANCE if no exit was found
+     */
+    public double get() {
+        return Double.longBitsToDouble(mDistanceBits.get());
+    }
+
+    /**
+     * @return true if any exit was found
+     */
+    public boolean isFound() {
+        return mFound;
+    }
+
+    /**
+     * Checks if given distance may still lead to better exit.
+     * @param distance - room distance from entrance
+     * @return true if no exit was found yet, or distance is shorter than current bound
+     */
+    public boolean isCloserThanBound(double distance) {
+        // mFound is written after the distance, so reading it first gives consistent view
+        return !mFound || Double.compare(distance, get()) < 0;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Estimate of remaining distance from room to closest exit reachable from it, used by PathFinder
+ * to visit promising rooms first and to skip rooms which cannot lead to closer exit.
+ *
+ * Estimate must be admissible - never greater than real distance to closest reachable exit, otherwise
+ * closest exit may be skipped. 0.0 is always admissible, and turns the heuristic off for given room.
+ */
+public interface ExitDistanceHeuristic {
+
+    /**
+     * Estimates distance to closest exit. Called concurrently by search threads, so it must be thread safe.
+     * @param room - room which is not an exit
+     * @return non-negative lower bound of distance from room to closest exit reachable from it
+     */
+    double estimateDistanceToExit(RoomInterface room);
+}
@@ -0,0 +1,351 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distance of closest exit reachable from every room of LabyrinthGraph, so closest exit of any entrance
+ * is found by single array lookup instead of search. See PathFinder.setExitDistanceIndex().
+ *
+ * Index is built bottom-up in parallel: room is resolved when all its corridors are, starting from rooms
+ * without corridors, so every room and corridor is processed once. Labyrinth must not have cycles.
+ *
+ * Index built from object labyrinth also maps its rooms to ids, so they are answered from index as well.
+ *
+ * File layout, little endian: header - magic (int), version (int), room count (int), padding (int),
+ * then closest exit distance - double per room.
+ */
+class ExitDistanceIndex {
+
+    /** Distance stored for rooms with no reachable exit */
+    static final double NO_EXIT_DISTANCE = ExitDistanceBound.INITIAL_DISTANCE;
+
+    /** File magic, "EXID" */
+    private static final int MAGIC = 0x45584944;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /** Size of buffer used for reading and writing */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    /** Number of rooms without corridors handed to one task at start */
+    private static final int LEAF_CHUNK_SIZE = 1 << 12;
+    /** Size of local room stack of build task, above which half of it is handed to other threads */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Indexed labyrinth, null if index was read without it */
+    private final LabyrinthGraph mLabyrinth;
+    /** Closest exit distance by room id */
+    private final double[] mClosestExitDistances;
+    /** Id of every room of object labyrinth index was built from, null if it was built from LabyrinthGraph */
+    private final IdentityHashMap<RoomInterface, Integer> mRoomIds;
+
+    private ExitDistanceIndex(LabyrinthGraph labyrinth, double[] closestExitDistances,
+                              IdentityHashMap<RoomInterface, Integer> roomIds) {
+        mLabyrinth = labyrinth;
+        mClosestExitDistances = closestExitDistances;
+        mRoomIds = roomIds;
+    }
+
+    /**
+     * Builds index of labyrinth reachable from given entrance. Entrance of other labyrinth than LabyrinthGraph
+     * is copied to CompactLabyrinth first, where it gets room id 0, see getLabyrinth(). Index then keeps
+     * id of every original room, see getRoomId(), and so keeps rooms themselves reachable.
+     * @param entrance - entrance to the labyrinth
+     * @param parallelism - number of threads used
+     * @return index
+     */
+    public static ExitDistanceIndex build(RoomInterface entrance, int parallelism) {
+        if (entrance instanceof CompactRoom) {
+            return build(((CompactRoom) entrance).getLabyrinth(), parallelism);
+        }
+        IdentityHashMap<RoomInterface, Integer> roomIds = new IdentityHashMap<RoomInterface, Integer>();
+        ExitDistanceIndex index = build(CompactLabyrinth.fromRoom(entrance, roomIds), parallelism);
+        return new ExitDistanceIndex(index.mLabyrinth, index.mClosestExitDistances, roomIds);
+    }
+
+    /**
+     * Builds index of whole labyrinth.
+     * @param labyrinth - labyrinth to index
+     * @param parallelism - number of threads used
+     * @return index
+     * @throws IllegalArgumentException if labyrinth has cycles
+     */
+    public static ExitDistanceIndex build(LabyrinthGraph labyrinth, int parallelism) {
+        if (labyrinth == null) {
+            throw new NullPointerException("Labyrinth must not be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+        }
+        int roomCount = labyrinth.getRoomCount();
+        // reverse corridors, so resolved room can find rooms leading to it
+        int[] parentOffsets = new int[roomCount + 1];
+        AtomicIntegerArray pendingCorridors = new AtomicIntegerArray(roomCount);
+        for (int room = 0; room < roomCount; room++) {
+            int start = labyrinth.getCorridorStart(room);
+            int end = labyrinth.getCorridorEnd(room);
+            pendingCorridors.set(room, end - start);
+            for (int corridor = start; corridor < end; corridor++) {
+                parentOffsets[labyrinth.getCorridorTarget(corridor) + 1]++;
+            }
+        }
+        for (int room = 0; room < roomCount; room++) {
+            parentOffsets[room + 1] += parentOffsets[room];
+        }
+        int[] parents = new int[parentOffsets[roomCount]];
+        int[] nextParent = Arrays.copyOf(parentOffsets, roomCount);
+        int[] leaves = new int[roomCount];
+        int leafCount = 0;
+        for (int room = 0; room < roomCount; room++) {
+            int start = labyrinth.getCorridorStart(room);
+            int end = labyrinth.getCorridorEnd(room);
+            for (int corridor = start; corridor < end; corridor++) {
+                parents[nextParent[labyrinth.getCorridorTarget(corridor)]++] = room;
+            }
+            if (start == end) {
+                leaves[leafCount++] = room;
+            }
+        }
+        Builder builder = new Builder(labyrinth, parentOffsets, parents, pendingCorridors);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(builder.new ResolveTask(null, leaves, leafCount));
+        } finally {
+            pool.shutdown();
+        }
+        if (builder.mResolvedRooms.sum() != roomCount) {
+            throw new IllegalArgumentException("Labyrinth has cycles");
+        }
+        return new ExitDistanceIndex(labyrinth, builder.mClosestExitDistances, null);
+    }
+
+    /**
+     * Reads index written by write().
+     * @param file - index file
+     * @param labyrinth - indexed labyrinth, may be null if index is used by room ids only
+     * @return index
+     * @throws IOException if file can not be read, has invalid format, or does not match labyrinth
+     */
+    public static ExitDistanceIndex read(File file, LabyrinthGraph labyrinth) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            // start with empty buffer in read mode
+            buffer.limit(0);
+            fill(channel, buffer, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an exit distance index file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported exit distance index file version " + version);
+            }
+            int roomCount = buffer.getInt();
+            buffer.getInt();
+            if (labyrinth != null && labyrinth.getRoomCount() != roomCount) {
+                throw new IOException("Index has " + roomCount + " rooms, labyrinth has "
+                        + labyrinth.getRoomCount());
+            }
+            double[] closestExitDistances = new double[roomCount];
+            for (int room = 0; room < roomCount; room++) {
+                if (buffer.remaining() < 8) {
+                    fill(channel, buffer, 8);
+                }
+                closestExitDistances[room] = buffer.getDouble();
+            }
+            return new ExitDistanceIndex(labyrinth, closestExitDistances, null);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes index to file.
+     * @param file - target file
+     * @throws IOException if file can not be written
+     */
+    public void write(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(mClosestExitDistances.length).putInt(0);
+            for (double distance : mClosestExitDistances) {
+                if (buffer.remaining() < 8) {
+                    flush(channel, buffer);
+                }
+                buffer.putDouble(distance);
+            }
+            flush(channel, buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return indexed labyrinth, null if index was read without it
+     */
+    public LabyrinthGraph getLabyrinth() {
+        return mLabyrinth;
+    }
+
+    public int getRoomCount() {
+        return mClosestExitDistances.length;
+    }
+
+    /**
+     * @param room - room of indexed labyrinth, or of object labyrinth index was built from
+     * @return room id, or -1 if room is not indexed
+     */
+    public int getRoomId(RoomInterface room) {
+        if (room instanceof CompactRoom) {
+            CompactRoom compactRoom = (CompactRoom) room;
+            return mLabyrinth != null && compactRoom.getLabyrinth() == mLabyrinth ? compactRoom.getId() : -1;
+        }
+        Integer id = mRoomIds == null ? null : mRoomIds.get(room);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param room - room id
+     * @return true if any exit is reachable from room
+     */
+    public boolean isExitReachable(int room) {
+        return mClosestExitDistances[room] != NO_EXIT_DISTANCE;
+    }
+
+    /**
+     * @param room - room id
+     * @return distance of closest exit reachable from room, Double.MAX_VALUE if there is none
+     */
+    public double getClosestExitDistance(int room) {
+        return mClosestExitDistances[room];
+    }
+
+    /**
+     * Compacts buffer and reads from channel until buffer has at least required bytes, then flips it.
+     */
+    private static void fill(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+        buffer.compact();
+        while (buffer.position() < required) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Exit distance index file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Shared state of index build.
+     */
+    private static final class Builder {
+
+        private final LabyrinthGraph mLabyrinth;
+        /** Rooms leading to every room, in CSR layout */
+        private final int[] mParentOffsets;
+        private final int[] mParents;
+        /** Number of corridors of every room which are not resolved yet */
+        private final AtomicIntegerArray mPendingCorridors;
+        private final double[] mClosestExitDistances;
+        private final LongAdder mResolvedRooms;
+
+        Builder(LabyrinthGraph labyrinth, int[] parentOffsets, int[] parents, AtomicIntegerArray pendingCorridors) {
+            mLabyrinth = labyrinth;
+            mParentOffsets = parentOffsets;
+            mParents = parents;
+            mPendingCorridors = pendingCorridors;
+            mClosestExitDistances = new double[labyrinth.getRoomCount()];
+            mResolvedRooms = new LongAdder();
+        }
+
+        /**
+         * Computes closest exit distance of room whose corridors are all resolved.
+         * Distance is written before pending counters of parents are decremented,
+         * so thread resolving a parent sees distances of all its corridors.
+         */
+        private double resolve(int room) {
+            if (mLabyrinth.isExit(room)) {
+                return mLabyrinth.getDistanceFromStart(room);
+            }
+            double closest = NO_EXIT_DISTANCE;
+            int end = mLabyrinth.getCorridorEnd(room);
+            for (int corridor = mLabyrinth.getCorridorStart(room); corridor < end; corridor++) {
+                closest = Math.min(closest, mClosestExitDistances[mLabyrinth.getCorridorTarget(corridor)]);
+            }
+            return closest;
+        }
+
+        /**
+         * Task resolving rooms from its local stack. Parent whose last corridor was resolved is pushed to stack.
+         */
+        private final class ResolveTask extends CountedCompleter<Void> {
+
+            private static final long serialVersionUID = 1L;
+
+            private int[] rooms;
+            private int size;
+
+            ResolveTask(ResolveTask parent, int[] rooms, int size) {
+                super(parent);
+                this.rooms = rooms;
+                this.size = size;
+            }
+
+            @Override
+            public void compute() {
+                // hand out initial rooms in chunks, so all threads start at once
+                while (size > LEAF_CHUNK_SIZE) {
+                    int half = size / 2;
+                    addToPendingCount(1);
+                    new ResolveTask(this, Arrays.copyOfRange(rooms, half, size), size - half).fork();
+                    size = half;
+                }
+                int resolved = 0;
+                while (size > 0) {
+                    int room = rooms[--size];
+                    mClosestExitDistances[room] = resolve(room);
+                    resolved++;
+                    for (int i = mParentOffsets[room]; i < mParentOffsets[room + 1]; i++) {
+                        int parent = mParents[i];
+                        if (mPendingCorridors.decrementAndGet(parent) == 0) {
+                            push(parent);
+                        }
+                    }
+                    if (size > SPLIT_THRESHOLD) {
+                        int half = size / 2;
+                        addToPendingCount(1);
+                        new ResolveTask(this, Arrays.copyOf(rooms, half), half).fork();
+                        System.arraycopy(rooms, half, rooms, 0, size - half);
+                        size -= half;
+                    }
+                }
+                mResolvedRooms.add(resolved);
+                tryComplete();
+            }
+
+            private void push(int room) {
+                if (size == rooms.length) {
+                    rooms = Arrays.copyOf(rooms, Math.max(16, size * 2));
+                }
+                rooms[size++] = room;
+            }
+        }
+    }
+}
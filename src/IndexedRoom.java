@@ -0,0 +1,18 @@
+/**
+ * Room giving access to its corridors by index, so they can be read without copying them to new array
+ * on every corridors() call. Searches, batch searches, incremental searches
+ * and CompactLabyrinth copies use it for rooms implementing it, see Corridors, and corridors() for other rooms.
+ */
+public interface IndexedRoom extends RoomInterface {
+
+    /**
+     * @return number of corridors of this room
+     */
+    int getCorridorCount();
+
+    /**
+     * @param index - corridor index, from 0 to getCorridorCount() - 1
+     * @return room the corridor leads to
+     */
+    RoomInterface getCorridor(int index);
+}
@@ -32,15 +32,49 @@ public class Labirynth {
         }
         // sort rooms by distance from entrance
         Collections.sort(allRooms);
-        // log created rooms
-        log(allRooms.toString());
-
-
+        // connect rooms into binary tree - parent is always closer to entrance than its corridors.
+        // Search never walks past an exit, so only rooms which are not exits get corridors
+        ArrayList<CustomRoom> parents = new ArrayList<CustomRoom>();
+        parents.add(allRooms.get(0));
+        for (int i = 1; i < allRooms.size(); i++) {
+            CustomRoom room = allRooms.get(i);
+            parents.get(Math.min((i - 1) / 2, parents.size() - 1)).addRoom(room);
+            if (!room.isExit()) {
+                parents.add(room);
+            }
+        }
+        // log created rooms - ids only, toString() of room prints its whole subtree
+        StringBuilder roomIds = new StringBuilder("Created rooms:");
+        for (CustomRoom room : allRooms) {
+            roomIds.append(' ').append(room.getId());
+        }
+        log(roomIds.toString());
 
         return allRooms.get(0);
     }
 
 
+    /**
+     * Generates large labyrinth with given shape. For more options use LabyrinthGenerator directly.
+     * @param shape - tree, DAG or grid
+     * @param roomCount - number of rooms
+     * @param branchingFactor - ratio of sizes of consecutive levels, ignored by grids
+     * @param exitDensity - probability that room is an exit
+     * @param seed - random seed, the same seed gives the same labyrinth
+     * @return entrance to generated labyrinth
+     */
+    public static RoomInterface generatedLabirynth(LabyrinthGenerator.Shape shape, int roomCount,
+                                                   double branchingFactor, double exitDensity, long seed) {
+        return new LabyrinthGenerator()
+                .setShape(shape)
+                .setRoomCount(roomCount)
+                .setBranchingFactor(branchingFactor)
+                .setExitDensity(exitDensity)
+                .setSeed(seed)
+                .generate()
+                .getRoom(0);
+    }
+
     public static RoomInterface manualLabirynth() {
         CustomRoom entrace = new CustomRoom(0, false, 0.0);
         CustomRoom r1 = new CustomRoom(1, false, 1d);
@@ -0,0 +1,460 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Seeded generator of large synthetic labyrinths for load testing.
+ *
+ * Trees and DAGs are built in levels - every room has its parents in previous level, so whole labyrinth
+ * is reachable from entrance (room 0) and corridors always lead farther from entrance. Grids are width x height
+ * rooms with corridors leading right and down. Every random choice is a hash of seed and room id,
+ * so generated labyrinth does not depend on number of threads or their scheduling.
+ */
+class LabyrinthGenerator {
+
+    /** Kind of generated labyrinth */
+    enum Shape {
+        /** Every room has one parent */
+        TREE,
+        /** Every room has up to getParentCount() parents, so rooms are shared between paths */
+        DAG,
+        /** Rectangular grid, corridors lead to right and lower neighbour */
+        GRID
+    }
+
+    /** Where exits are placed */
+    enum ExitPlacement {
+        /** Any room can be an exit */
+        UNIFORM,
+        /** Only rooms without corridors can be exits */
+        LEAVES,
+        /** Only rooms in deeper half of labyrinth can be exits */
+        DEEP
+    }
+
+    /** Number of rooms processed by one parallel task */
+    private static final int CHUNK_SIZE = 1 << 14;
+    /** Max distance between first and additional parents of DAG room */
+    private static final int DAG_PARENT_WINDOW = 8;
+    /** Max corridor length, min is 1 */
+    private static final double MAX_CORRIDOR_LENGTH = 5d;
+
+    private static final int SALT_PARENT = 1;
+    private static final int SALT_LENGTH = 2;
+    private static final int SALT_EXIT = 3;
+
+    private long mSeed;
+    private int mRoomCount;
+    private Shape mShape;
+    private double mBranchingFactor;
+    private double mDepthSkew;
+    private int mParentCount;
+    private int mGridWidth;
+    private double mExitDensity;
+    private ExitPlacement mExitPlacement;
+    private int mParallelism;
+
+    public LabyrinthGenerator() {
+        mSeed = 0L;
+        mRoomCount = 1000;
+        mShape = Shape.TREE;
+        mBranchingFactor = 2d;
+        mDepthSkew = 0d;
+        mParentCount = 2;
+        mGridWidth = 0;
+        mExitDensity = 0.001d;
+        mExitPlacement = ExitPlacement.UNIFORM;
+        mParallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    public LabyrinthGenerator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    public LabyrinthGenerator setRoomCount(int roomCount) {
+        if (roomCount <= 0) {
+            throw new IllegalArgumentException("roomCount must be positive");
+        }
+        mRoomCount = roomCount;
+        return this;
+    }
+
+    public LabyrinthGenerator setShape(Shape shape) {
+        if (shape == null) {
+            throw new NullPointerException("Shape must not be null");
+        }
+        mShape = shape;
+        return this;
+    }
+
+    /**
+     * Sets ratio of sizes of consecutive levels of tree or DAG. 1 gives a chain, larger values give
+     * wider and shallower labyrinths.
+     * @param branchingFactor - average number of corridors per room, at least 1
+     */
+    public LabyrinthGenerator setBranchingFactor(double branchingFactor) {
+        if (branchingFactor < 1d) {
+            throw new IllegalArgumentException("branchingFactor must be at least 1");
+        }
+        mBranchingFactor = branchingFactor;
+        return this;
+    }
+
+    /**
+     * Sets how unevenly rooms of a level are spread over parents. 0 spreads them uniformly, so all subtrees
+     * are similarly deep. Values closer to 1 give most rooms to few parents, so few subtrees reach
+     * the deepest levels while others end early.
+     * @param depthSkew - skew from 0 to 1
+     */
+    public LabyrinthGenerator setDepthSkew(double depthSkew) {
+        if (depthSkew < 0d || depthSkew > 1d) {
+            throw new IllegalArgumentException("depthSkew must be between 0 and 1");
+        }
+        mDepthSkew = depthSkew;
+        return this;
+    }
+
+    /**
+     * @param parentCount - max number of parents of every DAG room
+     */
+    public LabyrinthGenerator setParentCount(int parentCount) {
+        if (parentCount <= 0) {
+            throw new IllegalArgumentException("parentCount must be positive");
+        }
+        mParentCount = parentCount;
+        return this;
+    }
+
+    /**
+     * @param gridWidth - number of rooms in grid row, 0 for square grid
+     */
+    public LabyrinthGenerator setGridWidth(int gridWidth) {
+        if (gridWidth < 0) {
+            throw new IllegalArgumentException("gridWidth must not be negative");
+        }
+        mGridWidth = gridWidth;
+        return this;
+    }
+
+    /**
+     * @param exitDensity - probability that room allowed by exit placement is an exit
+     */
+    public LabyrinthGenerator setExitDensity(double exitDensity) {
+        if (exitDensity < 0d || exitDensity > 1d) {
+            throw new IllegalArgumentException("exitDensity must be between 0 and 1");
+        }
+        mExitDensity = exitDensity;
+        return this;
+    }
+
+    public LabyrinthGenerator setExitPlacement(ExitPlacement exitPlacement) {
+        if (exitPlacement == null) {
+            throw new NullPointerException("Exit placement must not be null");
+        }
+        mExitPlacement = exitPlacement;
+        return this;
+    }
+
+    /**
+     * @param parallelism - number of threads used for generation
+     */
+    public LabyrinthGenerator setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        mParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Generates labyrinth. Entrance has id 0 and distance 0.
+     * @return generated labyrinth
+     */
+    public CompactLabyrinth generate() {
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            if (mShape == Shape.GRID) {
+                return generateGrid(pool);
+            }
+            return generateLevels(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Generates tree or DAG, level by level.
+     */
+    private CompactLabyrinth generateLevels(ForkJoinPool pool) {
+        final int roomCount = mRoomCount;
+        final int parentCount = mShape == Shape.DAG ? mParentCount : 1;
+        final int[] levelStarts = levelStarts(roomCount);
+        final int levelCount = levelStarts.length - 1;
+
+        // count corridors of every room
+        final AtomicIntegerArray corridorCounts = new AtomicIntegerArray(roomCount);
+        for (int level = 1; level < levelCount; level++) {
+            final int currentLevel = level;
+            forEachRoom(pool, levelStarts[level], levelStarts[level + 1], new RoomRangeAction() {
+                @Override
+                public void run(int from, int to) {
+                    int[] roomParents = new int[parentCount];
+                    for (int room = from; room < to; room++) {
+                        int count = parentsOf(room, levelStarts, currentLevel, roomParents);
+                        for (int i = 0; i < count; i++) {
+                            corridorCounts.incrementAndGet(roomParents[i]);
+                        }
+                    }
+                }
+            });
+        }
+        // corridor offsets are prefix sums of corridor counts
+        final int[] offsets = new int[roomCount + 1];
+        for (int room = 0; room < roomCount; room++) {
+            offsets[room + 1] = corridorCounts.get(room);
+        }
+        Arrays.parallelPrefix(offsets, new IntBinaryOperator() {
+            @Override
+            public int applyAsInt(int left, int right) {
+                return left + right;
+            }
+        });
+        // fill corridor targets - order within room is fixed by sorting afterwards
+        final int[] targets = new int[offsets[roomCount]];
+        final AtomicIntegerArray cursors = new AtomicIntegerArray(Arrays.copyOf(offsets, roomCount));
+        for (int level = 1; level < levelCount; level++) {
+            final int currentLevel = level;
+            forEachRoom(pool, levelStarts[level], levelStarts[level + 1], new RoomRangeAction() {
+                @Override
+                public void run(int from, int to) {
+                    int[] roomParents = new int[parentCount];
+                    for (int room = from; room < to; room++) {
+                        int count = parentsOf(room, levelStarts, currentLevel, roomParents);
+                        for (int i = 0; i < count; i++) {
+                            targets[cursors.getAndIncrement(roomParents[i])] = room;
+                        }
+                    }
+                }
+            });
+        }
+        forEachRoom(pool, 0, roomCount, new RoomRangeAction() {
+            @Override
+            public void run(int from, int to) {
+                for (int room = from; room < to; room++) {
+                    Arrays.sort(targets, offsets[room], offsets[room + 1]);
+                }
+            }
+        });
+        // distances - every room is farther than all its parents
+        final double[] distances = new double[roomCount];
+        for (int level = 1; level < levelCount; level++) {
+            final int currentLevel = level;
+            forEachRoom(pool, levelStarts[level], levelStarts[level + 1], new RoomRangeAction() {
+                @Override
+                public void run(int from, int to) {
+                    int[] roomParents = new int[parentCount];
+                    for (int room = from; room < to; room++) {
+                        int count = parentsOf(room, levelStarts, currentLevel, roomParents);
+                        double parentDistance = 0d;
+                        for (int i = 0; i < count; i++) {
+                            parentDistance = Math.max(parentDistance, distances[roomParents[i]]);
+                        }
+                        distances[room] = parentDistance + corridorLength(room);
+                    }
+                }
+            });
+        }
+        // exits
+        final BitSet exits = new BitSet(roomCount);
+        final int deepLevel = levelCount / 2;
+        for (int level = 1; level < levelCount; level++) {
+            for (int room = levelStarts[level]; room < levelStarts[level + 1]; room++) {
+                boolean allowed;
+                if (mExitPlacement == ExitPlacement.LEAVES) {
+                    allowed = offsets[room] == offsets[room + 1];
+                } else if (mExitPlacement == ExitPlacement.DEEP) {
+                    allowed = level >= deepLevel;
+                } else {
+                    allowed = true;
+                }
+                if (allowed && random(room, SALT_EXIT) < mExitDensity) {
+                    exits.set(room);
+                }
+            }
+        }
+        return new CompactLabyrinth(distances, exits, offsets, targets);
+    }
+
+    /**
+     * Splits rooms into levels. Level 0 holds entrance, every next level is getBranchingFactor() times larger.
+     * @return start room of every level, and room count as last entry
+     */
+    private int[] levelStarts(int roomCount) {
+        int[] starts = new int[16];
+        int levels = 0;
+        int start = 0;
+        double size = 1d;
+        while (start < roomCount) {
+            if (levels + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[levels++] = start;
+            start += (int) Math.min(roomCount - start, Math.max(1d, Math.round(size)));
+            size *= mBranchingFactor;
+        }
+        starts[levels] = roomCount;
+        return Arrays.copyOf(starts, levels + 1);
+    }
+
+    /**
+     * Chooses parents of room from previous level. Rooms are mapped onto previous level in order,
+     * with random jitter, so parent of a room is never after parent of the next room - neighbouring rooms
+     * have neighbouring parents, and generation reads and writes memory mostly sequentially.
+     * As depth skew grows, the mapping packs more rooms onto first parents of the level.
+     * Additional DAG parents are picked close to the first one.
+     * @return number of distinct parents written to parents array
+     */
+    private int parentsOf(int room, int[] levelStarts, int level, int[] parents) {
+        int levelStart = levelStarts[level];
+        int levelSize = levelStarts[level + 1] - levelStart;
+        int parentLevelStart = levelStarts[level - 1];
+        int parentLevelSize = levelStart - parentLevelStart;
+        double position = (room - levelStart + random(room, SALT_PARENT)) / levelSize;
+        if (mDepthSkew > 0d) {
+            position = Math.pow(position, 1d + 8d * mDepthSkew);
+        }
+        int parent = parentLevelStart + Math.min(parentLevelSize - 1, (int) (position * parentLevelSize));
+        parents[0] = parent;
+        int count = 1;
+        for (int i = 1; i < parents.length; i++) {
+            int offset = (int) ((2 * DAG_PARENT_WINDOW + 1) * random(room, SALT_PARENT + 16 * i)) - DAG_PARENT_WINDOW;
+            int another = Math.max(parentLevelStart, Math.min(parentLevelStart + parentLevelSize - 1, parent + offset));
+            boolean duplicate = false;
+            for (int j = 0; j < count; j++) {
+                if (parents[j] == another) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                parents[count++] = another;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Generates grid. Room (x, y) has id y * width + x and distance x + y plus up to 0.5 of noise,
+     * so corridors to (x + 1, y) and (x, y + 1) always lead farther.
+     */
+    private CompactLabyrinth generateGrid(ForkJoinPool pool) {
+        final int width = mGridWidth > 0 ? mGridWidth : Math.max(1, (int) Math.sqrt(mRoomCount));
+        final int height = (mRoomCount + width - 1) / width;
+        final int roomCount = width * height;
+        final double[] distances = new double[roomCount];
+        final int[] offsets = new int[roomCount + 1];
+        for (int room = 0; room < roomCount; room++) {
+            int x = room % width;
+            int y = room / width;
+            offsets[room + 1] = offsets[room] + (x + 1 < width ? 1 : 0) + (y + 1 < height ? 1 : 0);
+        }
+        final int[] targets = new int[offsets[roomCount]];
+        forEachRoom(pool, 0, roomCount, new RoomRangeAction() {
+            @Override
+            public void run(int from, int to) {
+                for (int room = from; room < to; room++) {
+                    int x = room % width;
+                    int y = room / width;
+                    distances[room] = room == 0 ? 0d : x + y + 0.5d * random(room, SALT_LENGTH);
+                    int corridor = offsets[room];
+                    if (x + 1 < width) {
+                        targets[corridor++] = room + 1;
+                    }
+                    if (y + 1 < height) {
+                        targets[corridor] = room + width;
+                    }
+                }
+            }
+        });
+        BitSet exits = new BitSet(roomCount);
+        int deepDistance = (width + height) / 2;
+        for (int room = 1; room < roomCount; room++) {
+            boolean allowed;
+            if (mExitPlacement == ExitPlacement.LEAVES) {
+                allowed = offsets[room] == offsets[room + 1];
+            } else if (mExitPlacement == ExitPlacement.DEEP) {
+                allowed = room % width + room / width >= deepDistance;
+            } else {
+                allowed = true;
+            }
+            if (allowed && random(room, SALT_EXIT) < mExitDensity) {
+                exits.set(room);
+            }
+        }
+        return new CompactLabyrinth(distances, exits, offsets, targets);
+    }
+
+    private double corridorLength(int room) {
+        return 1d + (MAX_CORRIDOR_LENGTH - 1d) * random(room, SALT_LENGTH);
+    }
+
+    /**
+     * @return pseudo random number from [0, 1), fixed for seed, room and salt
+     */
+    private double random(int room, int salt) {
+        long z = mSeed + 0x9E3779B97F4A7C15L * (((long) room << 8) + salt + 1);
+        // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Runs action on rooms from given range, split into chunks processed in parallel.
+     * Small ranges are processed by calling thread.
+     */
+    private static void forEachRoom(ForkJoinPool pool, int from, int to, RoomRangeAction action) {
+        if (to - from <= CHUNK_SIZE) {
+            action.run(from, to);
+        } else {
+            pool.invoke(new RoomRangeTask(from, to, action));
+        }
+    }
+
+    /**
+     * Action run on range of rooms
+     */
+    private interface RoomRangeAction {
+        void run(int from, int to);
+    }
+
+    private static final class RoomRangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final RoomRangeAction action;
+
+        RoomRangeTask(int from, int to, RoomRangeAction action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                action.run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RoomRangeTask(from, middle, action), new RoomRangeTask(middle, to, action));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Labyrinth with rooms identified by int ids, and corridors stored in compressed sparse row form.
+ * Corridors of room are those with indexes from getCorridorStart(room) to getCorridorEnd(room) - 1.
+ * Implementations must be safe for concurrent reads.
+ */
+interface LabyrinthGraph {
+
+    int getRoomCount();
+
+    double getDistanceFromStart(int room);
+
+    boolean isExit(int room);
+
+    /**
+     * @return index of first corridor of given room
+     */
+    int getCorridorStart(int room);
+
+    /**
+     * @return index after last corridor of given room
+     */
+    int getCorridorEnd(int room);
+
+    /**
+     * @return id of room which corridor with given index leads to
+     */
+    int getCorridorTarget(int corridor);
+
+    /**
+     * Returns RoomInterface view of given room. Passing it to PathFinder as entrance makes it
+     * search this labyrinth directly.
+     * @param room - room id
+     * @return room view
+     */
+    CompactRoom getRoom(int room);
+}
@@ -1,20 +1,26 @@
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Created by paweldylag on 06/11/15.
  */
 public class Main {
 
-    public static void main (String[] args) {
+    public static void main (String[] args) throws InterruptedException {
         PathFinder pathFinder = new PathFinder();
         pathFinder.setMaxThreads(4);
+        final CountDownLatch finished = new CountDownLatch(1);
         // rejestracja obserwatora
         pathFinder.registerObserver(new Runnable() {
 
             @Override
             public void run() {
                 PMO_SOUT.println("Wywolano observer.run()");
+                finished.countDown();
             }
         });
         pathFinder.entranceToTheLabyrinth(Labirynth.manualLabirynth());
+        // search threads are daemons, so JVM would exit before search is finished
+        finished.await();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Labyrinth stored in binary file and accessed through memory mapping, so it is searched off-heap
+ * and loaded lazily by operating system as pages are touched.
+ *
+ * File layout, little endian, every section aligned to 8 bytes:
+ * header - magic (int), version (int), room count (int), corridor count (int),
+ * distances - double per room,
+ * exits - bit set as long words, bit room % 64 of word room / 64,
+ * corridor offsets - int per room plus one (padded),
+ * corridor targets - int per corridor.
+ */
+class MappedLabyrinth implements LabyrinthGraph {
+
+    /** File magic, "LABY" */
+    private static final int MAGIC = 0x4C414259;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /** Max size of single mapped chunk. Multiple of 8, so no value crosses chunk boundary */
+    private static final int CHUNK_SHIFT = 30;
+    /** Size of buffer used for writing */
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final int mRoomCount;
+    private final int mCorridorCount;
+    private final Section mDistances;
+    private final Section mExits;
+    private final Section mCorridorOffsets;
+    private final Section mCorridorTargets;
+
+    private MappedLabyrinth(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Labyrinth file is too short");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a labyrinth file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported labyrinth file version " + version);
+        }
+        mRoomCount = header.getInt();
+        mCorridorCount = header.getInt();
+        if (mRoomCount < 0 || mCorridorCount < 0) {
+            throw new IOException("Invalid labyrinth file header, room count " + mRoomCount
+                    + ", corridor count " + mCorridorCount);
+        }
+        // whole file is checked before mapping, as read-only mapping beyond end of file fails
+        long distancesSize = 8L * mRoomCount;
+        long exitsSize = 8L * exitWordCount(mRoomCount);
+        long corridorOffsetsSize = 4L * (mRoomCount + 1L);
+        long corridorTargetsSize = 4L * mCorridorCount;
+        long distancesPosition = HEADER_SIZE;
+        long exitsPosition = distancesPosition + align(distancesSize);
+        long corridorOffsetsPosition = exitsPosition + align(exitsSize);
+        long corridorTargetsPosition = corridorOffsetsPosition + align(corridorOffsetsSize);
+        long end = corridorTargetsPosition + align(corridorTargetsSize);
+        if (channel.size() < end) {
+            throw new IOException("Labyrinth file is truncated");
+        }
+        mDistances = new Section(channel, distancesPosition, distancesSize);
+        mExits = new Section(channel, exitsPosition, exitsSize);
+        mCorridorOffsets = new Section(channel, corridorOffsetsPosition, corridorOffsetsSize);
+        mCorridorTargets = new Section(channel, corridorTargetsPosition, corridorTargetsSize);
+    }
+
+    /**
+     * Maps labyrinth file. File may be closed and mapping stays valid until labyrinth is garbage collected.
+     * @param file - labyrinth file written by write()
+     * @return mapped labyrinth
+     * @throws IOException if file can not be read or has invalid format
+     */
+    public static MappedLabyrinth open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new MappedLabyrinth(randomAccessFile.getChannel());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes labyrinth reachable from given entrance to file. Entrance gets room id 0.
+     * @param entrance - entrance to the labyrinth
+     * @param file - target file
+     * @throws IOException if file can not be written
+     */
+    public static void write(RoomInterface entrance, File file) throws IOException {
+        write(CompactLabyrinth.fromRoom(entrance), file);
+    }
+
+    /**
+     * Writes labyrinth to file, keeping its room ids.
+     * @param labyrinth - labyrinth to write
+     * @param file - target file
+     * @throws IOException if file can not be written
+     */
+    public static void write(LabyrinthGraph labyrinth, File file) throws IOException {
+        int roomCount = labyrinth.getRoomCount();
+        int corridorCount = roomCount == 0 ? 0 : labyrinth.getCorridorEnd(roomCount - 1);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(roomCount).putInt(corridorCount);
+            for (int room = 0; room < roomCount; room++) {
+                buffer = flushIfFull(channel, buffer, 8);
+                buffer.putDouble(labyrinth.getDistanceFromStart(room));
+            }
+            for (int word = 0; word < exitWordCount(roomCount); word++) {
+                long bits = 0L;
+                int end = Math.min(roomCount, (word + 1) * 64);
+                for (int room = word * 64; room < end; room++) {
+                    if (labyrinth.isExit(room)) {
+                        bits |= 1L << room;
+                    }
+                }
+                buffer = flushIfFull(channel, buffer, 8);
+                buffer.putLong(bits);
+            }
+            for (int room = 0; room < roomCount; room++) {
+                buffer = flushIfFull(channel, buffer, 4);
+                buffer.putInt(labyrinth.getCorridorStart(room));
+            }
+            buffer = flushIfFull(channel, buffer, 8);
+            buffer.putInt(corridorCount);
+            if (((roomCount + 1) & 1) != 0) {
+                buffer.putInt(0);
+            }
+            for (int corridor = 0; corridor < corridorCount; corridor++) {
+                buffer = flushIfFull(channel, buffer, 4);
+                buffer.putInt(labyrinth.getCorridorTarget(corridor));
+            }
+            if ((corridorCount & 1) != 0) {
+                buffer = flushIfFull(channel, buffer, 4);
+                buffer.putInt(0);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public int getRoomCount() {
+        return mRoomCount;
+    }
+
+    @Override
+    public double getDistanceFromStart(int room) {
+        return mDistances.getDouble(8L * room);
+    }
+
+    @Override
+    public boolean isExit(int room) {
+        return (mExits.getLong(8L * (room >>> 6)) & (1L << room)) != 0;
+    }
+
+    @Override
+    public int getCorridorStart(int room) {
+        return mCorridorOffsets.getInt(4L * room);
+    }
+
+    @Override
+    public int getCorridorEnd(int room) {
+        return mCorridorOffsets.getInt(4L * (room + 1));
+    }
+
+    @Override
+    public int getCorridorTarget(int corridor) {
+        return mCorridorTargets.getInt(4L * corridor);
+    }
+
+    @Override
+    public CompactRoom getRoom(int room) {
+        if (room < 0 || room >= mRoomCount) {
+            throw new IndexOutOfBoundsException("No room with id " + room);
+        }
+        return new CompactRoom(this, room);
+    }
+
+    private static int exitWordCount(int roomCount) {
+        return (roomCount + 63) >>> 6;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Writes buffer to channel if it has less than required free bytes.
+     */
+    private static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+        if (buffer.remaining() < required) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * File section mapped in chunks, so sections larger than 2GB can be mapped as well.
+     */
+    private static final class Section {
+
+        private final MappedByteBuffer[] mChunks;
+
+        Section(FileChannel channel, long position, long size) throws IOException {
+            int chunkCount = (int) ((size + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+            mChunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long chunkStart = (long) i << CHUNK_SHIFT;
+                long chunkSize = Math.min(1L << CHUNK_SHIFT, size - chunkStart);
+                mChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + chunkStart, chunkSize);
+                mChunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        int getInt(long offset) {
+            return mChunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & ((1L << CHUNK_SHIFT) - 1)));
+        }
+
+        long getLong(long offset) {
+            return mChunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & ((1L << CHUNK_SHIFT) - 1)));
+        }
+
+        double getDouble(long offset) {
+            return mChunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & ((1L << CHUNK_SHIFT) - 1)));
+        }
+    }
+}
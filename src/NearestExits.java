@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Concurrent collection of exits closest to entrance, limited by count and distance.
+ *
+ * Exits are kept in max-heap ordered by distance, so farthest kept exit is evicted when closer one is offered
+ * to full heap. Distance of that farthest exit is published in volatile field, so pruning checks do not lock,
+ * and offers of exits which can not be kept are rejected without locking as well.
+ */
+class NearestExits {
+
+    /** Max number of exits kept */
+    private final int mMaxCount;
+    /** Max distance of exits kept */
+    private final double mMaxDistance;
+    /** Heap of exit distances, farthest exit first */
+    private double[] mDistances;
+    /** Exit rooms, in order of mDistances */
+    private RoomInterface[] mRooms;
+    private int mSize;
+    /** Rooms kept in heap, so exit reached by many paths is kept once */
+    private final HashSet<RoomInterface> mKeptRooms;
+    /** Rooms not closer than this distance can not lead to exit which would be kept */
+    private volatile double mPruningDistance;
+
+    /**
+     * @param maxCount - max number of exits kept, Integer.MAX_VALUE if not limited
+     * @param maxDistance - max distance of exits kept, Double.POSITIVE_INFINITY if not limited
+     */
+    NearestExits(int maxCount, double maxDistance) {
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("Exit count must be positive, got " + maxCount);
+        }
+        if (Double.isNaN(maxDistance) || maxDistance < 0.0) {
+            throw new IllegalArgumentException("Exit distance must not be negative, got " + maxDistance);
+        }
+        mMaxCount = maxCount;
+        mMaxDistance = maxDistance;
+        int capacity = Math.min(maxCount, 16);
+        mDistances = new double[capacity];
+        mRooms = new RoomInterface[capacity];
+        mKeptRooms = new HashSet<RoomInterface>();
+        // exits at max distance are kept, so only rooms farther than it are pruned
+        mPruningDistance = Math.nextUp(maxDistance);
+    }
+
+    /**
+     * Checks if room with given distance may lead to exit which would be kept.
+     * @param distance - room distance, or lower bound of distance of exits reachable from it
+     * @return true if room should be visited
+     */
+    boolean isCloserThanBound(double distance) {
+        return Double.compare(distance, mPruningDistance) < 0;
+    }
+
+    /**
+     * Offers exit found by search.
+     * @param room - exit room
+     * @param distance - exit distance from entrance
+     */
+    void offer(RoomInterface room, double distance) {
+        if (!isCloserThanBound(distance)) {
+            return;
+        }
+        synchronized (this) {
+            if (!isCloserThanBound(distance) || !mKeptRooms.add(room)) {
+                return;
+            }
+            if (mSize == mMaxCount) {
+                // evict farthest exit from top of heap
+                mKeptRooms.remove(mRooms[0]);
+                mDistances[0] = distance;
+                mRooms[0] = room;
+                siftDown(0);
+            } else {
+                if (mSize == mDistances.length) {
+                    int capacity = (int) Math.min((long) mMaxCount, mSize * 2L);
+                    mDistances = Arrays.copyOf(mDistances, capacity);
+                    mRooms = Arrays.copyOf(mRooms, capacity);
+                }
+                mDistances[mSize] = distance;
+                mRooms[mSize] = room;
+                siftUp(mSize);
+                mSize++;
+            }
+            if (mSize == mMaxCount) {
+                mPruningDistance = mDistances[0];
+            }
+        }
+    }
+
+    /**
+     * @return exits kept, closest first
+     */
+    synchronized List<RoomInterface> getExits() {
+        ArrayList<RoomInterface> exits = new ArrayList<RoomInterface>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            exits.add(mRooms[i]);
+        }
+        Collections.sort(exits, new Comparator<RoomInterface>() {
+            @Override
+            public int compare(RoomInterface room, RoomInterface another) {
+                return Double.compare(room.getDistanceFromStart(), another.getDistanceFromStart());
+            }
+        });
+        return Collections.unmodifiableList(exits);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (Double.compare(mDistances[parent], mDistances[index]) >= 0) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < mSize && Double.compare(mDistances[left], mDistances[largest]) > 0) {
+                largest = left;
+            }
+            if (right < mSize && Double.compare(mDistances[right], mDistances[largest]) > 0) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(largest, index);
+            index = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double distance = mDistances[i];
+        mDistances[i] = mDistances[j];
+        mDistances[j] = distance;
+        RoomInterface room = mRooms[i];
+        mRooms[i] = mRooms[j];
+        mRooms[j] = room;
+    }
+}
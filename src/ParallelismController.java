@@ -0,0 +1,190 @@
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts number of threads of PathFinder internal thread pool to work waiting in its queue,
+ * see PathFinder.setAdaptiveParallelism().
+ *
+ * While searches run, queue depth is sampled every SAMPLE_PERIOD_MICROS. Pool grows at once to one thread
+ * per QUEUED_TASKS_PER_THREAD queued rooms, up to max parallelism, so wide fan-outs get every thread.
+ * It shrinks by one thread per sample after fewer threads were enough for SHRINK_SAMPLES samples in a row,
+ * so narrow chains are visited by few threads instead of many threads contending on the queue.
+ * Threads above the limit leave the pool when they finish their current task, the rest wait parked
+ * on the queue. Sampling stops after IDLE_SAMPLES samples without queued or running tasks,
+ * and is started again by next search.
+ */
+class ParallelismController implements Runnable {
+
+    /** Time between queue depth samples */
+    private static final long SAMPLE_PERIOD_MICROS = 1000L;
+    /** Number of queued rooms which justify one more thread */
+    private static final int QUEUED_TASKS_PER_THREAD = 4;
+    /** Number of samples in a row needing fewer threads before pool shrinks */
+    private static final int SHRINK_SAMPLES = 10;
+    /** Number of samples in a row without work before sampling stops */
+    private static final int IDLE_SAMPLES = 100;
+    /** Time after which idle sampling thread is released */
+    private static final long SAMPLER_KEEP_ALIVE_MILLIS = 1000L;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mMaxParallelism;
+    private final PathFinderStats mStats;
+    /** Runs sampling, on single daemon thread */
+    private final ScheduledThreadPoolExecutor mSampler;
+    /** Periodic sampling, null while pool is idle. Guarded by this */
+    private ScheduledFuture<?> mSampling;
+    /** True if search was started since last idle check. Guarded by this */
+    private boolean mSearchStarted;
+    /** Current number of pool threads */
+    private volatile int mParallelism;
+
+    /* Following fields are used by sampling thread only */
+    /** Time of previous sample, from System.nanoTime() */
+    private long mLastSampleNanos;
+    /** Number of samples in a row needing fewer threads */
+    private int mShrinkSamples;
+    /** Number of samples in a row without queued or running tasks */
+    private int mIdleSamples;
+
+    /**
+     * @param executor - thread pool to resize, sized by this controller from now on
+     * @param maxParallelism - max number of pool threads
+     * @param stats - statistics receiving chosen parallelism
+     */
+    ParallelismController(ThreadPoolExecutor executor, int maxParallelism, PathFinderStats stats) {
+        mExecutor = executor;
+        mMaxParallelism = maxParallelism;
+        mStats = stats;
+        mSampler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PathFinder-parallelism");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mSampler.setKeepAliveTime(SAMPLER_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+        mSampler.allowCoreThreadTimeOut(true);
+        mSampler.setRemoveOnCancelPolicy(true);
+        resize(1);
+    }
+
+    /**
+     * Starts sampling, if it is not running. Called before every search submits its first task.
+     */
+    synchronized void start() {
+        if (mSampler.isShutdown()) {
+            return;
+        }
+        if (mSampling != null) {
+            mSearchStarted = true;
+            return;
+        }
+        mLastSampleNanos = System.nanoTime();
+        mShrinkSamples = 0;
+        mIdleSamples = 0;
+        mSampling = mSampler.scheduleAtFixedRate(this, SAMPLE_PERIOD_MICROS, SAMPLE_PERIOD_MICROS,
+                TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Stops sampling for good. Thread pool gets all its threads back, so searches still running on it
+     * are not left with few threads.
+     */
+    synchronized void shutdown() {
+        if (mSampling != null) {
+            mSampling.cancel(false);
+            mSampling = null;
+        }
+        mSampler.shutdownNow();
+        resize(mMaxParallelism);
+    }
+
+    /**
+     * @return current number of pool threads
+     */
+    int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Takes one sample and resizes pool if needed.
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        mStats.recordParallelism(mParallelism, now - mLastSampleNanos);
+        mLastSampleNanos = now;
+
+        int queued = mExecutor.getQueue().size();
+        if (queued == 0 && mExecutor.getActiveCount() == 0) {
+            if (++mIdleSamples >= IDLE_SAMPLES && stopIfIdle()) {
+                return;
+            }
+        } else {
+            mIdleSamples = 0;
+        }
+        int target = Math.min(mMaxParallelism, Math.max(1,
+                (queued + QUEUED_TASKS_PER_THREAD - 1) / QUEUED_TASKS_PER_THREAD));
+        int parallelism = mParallelism;
+        if (target > parallelism) {
+            mShrinkSamples = 0;
+            resizeIfSampling(target);
+        } else if (target < parallelism) {
+            if (++mShrinkSamples >= SHRINK_SAMPLES) {
+                mShrinkSamples = 0;
+                resizeIfSampling(parallelism - 1);
+            }
+        } else {
+            mShrinkSamples = 0;
+        }
+    }
+
+    /**
+     * Stops sampling, unless search was started since last check.
+     * @return true if sampling was stopped
+     */
+    private synchronized boolean stopIfIdle() {
+        mIdleSamples = 0;
+        if (mSampling == null) {
+            return true;
+        }
+        if (mSearchStarted) {
+            mSearchStarted = false;
+            return false;
+        }
+        mSampling.cancel(false);
+        mSampling = null;
+        return true;
+    }
+
+    /**
+     * Resizes pool, unless sampling was stopped meanwhile - then pool size is no longer controlled.
+     */
+    private synchronized void resizeIfSampling(int parallelism) {
+        if (mSampling != null) {
+            resize(parallelism);
+        }
+    }
+
+    /**
+     * Sets number of pool threads. Core and max size are changed in order which keeps core size
+     * not above max size at any time.
+     */
+    private void resize(int parallelism) {
+        if (parallelism > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(parallelism);
+            mExecutor.setCorePoolSize(parallelism);
+        } else {
+            mExecutor.setCorePoolSize(parallelism);
+            mExecutor.setMaximumPoolSize(parallelism);
+        }
+        if (mParallelism != 0) {
+            mStats.recordParallelismChange();
+        }
+        mParallelism = parallelism;
+    }
+}
@@ -1,270 +1,729 @@
-import java.util.concurrent.Executors;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Created by Pawel Dylag on 25/10/15.
  *
  * This class searches labyrinth for closest exit using fixed number of threads.
+ * One PathFinder can run many searches, one after another or at the same time - its thread pool
+ * is kept between searches, and every search tracks its own state in PathSearch object.
+ * Entrance obtained from LabyrinthGraph.getRoom() is searched directly on labyrinth arrays or mapped file.
  */
 class PathFinder implements PathFinderInterface {
 
     /** Class tag */
     private static final String TAG = PathFinder.class.getSimpleName();
     /** Initial entrance distance value */
-    private static final double INITIAL_ENTRANCE_DISTANCE = Double.MAX_VALUE;
+    private static final double INITIAL_ENTRANCE_DISTANCE = ExitDistanceBound.INITIAL_DISTANCE;
+    /** Time after which idle threads of internal thread pool are released */
+    private static final long THREAD_KEEP_ALIVE_MILLIS = 5000L;
 
-    /** Shared info about exit search result */
-    private boolean mExitFound;
-    /** Shared info about shortest distance to exit */
-    private double mShortestDistanceToExit;
-    private final ReadWriteLock mRoomLock;
-
-    private AtomicInteger mActiveVisits;
-    private Thread mfinisherThread;
+    /** Search started by last entranceToTheLabyrinth() call */
+    private volatile PathSearch mCurrentSearch;
+    /** Statistics of all searches */
+    private final PathFinderStats mStats;
 
     /** Observer notified about search finish */
     private Runnable mObserver;
-    /** Thread pool manager object */
-    private ThreadPoolExecutor mExecutor;
+    /** Thread pool manager object, internal or provided via setExecutor() */
+    private ExecutorService mExecutor;
+    /** True if mExecutor was provided by caller, and must not be shut down by this class */
+    private boolean mExternalExecutor;
+    /** Number of unfinished searches of every internal thread pool. Pool replaced while it has searches
+     * is shut down after the last one finishes */
+    private final Map<ExecutorService, Integer> mActiveSearches;
+    /** Max number of threads used by internal thread pool */
+    private int mMaxThreads;
+    /** Order of visiting queued rooms */
+    private SchedulingStrategy mSchedulingStrategy;
+    /** Kind of thread pool used for search */
+    private SearchEngine mSearchEngine;
+    /** Max number of rooms visited by one VisitRoomTask */
+    private int mBatchSize;
+    /** Search time limit, 0 if searches are not limited */
+    private long mTimeoutNanos;
+    /** Searches stop at first exit not farther than this distance */
+    private double mStopDistance;
+    /** True if every room should be visited only once */
+    private boolean mDeduplicateRooms;
+    /** True if corridors are checked before they are scheduled */
+    private boolean mEagerChildPruning;
+    /** Estimate of distance from room to closest exit, null if not used */
+    private ExitDistanceHeuristic mHeuristic;
+    /** True if route to closest exit is tracked */
+    private boolean mTrackShortestPath;
+    /** Max number of corridors() calls in progress, 0 if room loads are not limited */
+    private int mMaxRoomLoads;
+    /** Permits for corridors() calls of all searches, null if room loads are not limited */
+    private Semaphore mRoomLoads;
+    /** Closest exit distances of indexed labyrinth, null if searches are not answered from index */
+    private ExitDistanceIndex mExitDistanceIndex;
+    /** True if internal thread pool size follows queued work */
+    private boolean mAdaptiveParallelism;
+    /** Resizes internal thread pool, null if its size is fixed */
+    private ParallelismController mParallelismController;
 
     public PathFinder() {
-        mExitFound = false;
-        mShortestDistanceToExit = INITIAL_ENTRANCE_DISTANCE;
-        mRoomLock = new ReentrantReadWriteLock();
-        mActiveVisits = new AtomicInteger();
+        mStats = new PathFinderStats(this);
+        mActiveSearches = new IdentityHashMap<ExecutorService, Integer>();
+        mBatchSize = 1;
+        mSchedulingStrategy = SchedulingStrategy.FIFO;
+        mSearchEngine = SearchEngine.EXECUTOR;
+        mStopDistance = Double.NEGATIVE_INFINITY;
     }
 
     @Override
-    public void setMaxThreads(int i) {
+    public synchronized void setMaxThreads(int i) {
         if (i <= 0) {
             throw new IllegalArgumentException("Thread number must be positive");
         }
-        // setup executor with fixed thread number
-        mExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(i);
+        mMaxThreads = i;
+        // internal executor with fixed thread number is created on first search
+        releaseInternalExecutor();
     }
 
-    @Override
-    public void entranceToTheLabyrinth(RoomInterface mi) {
-        if (mi == null){
-            throw new NullPointerException("Entrance must not be null");
+    /**
+     * Sets externally owned thread pool used by all following searches. PathFinder never shuts it down.
+     * SearchEngine.FORK_JOIN requires ForkJoinPool, and SchedulingStrategy.BEST_FIRST works only if
+     * executor queue is a PriorityBlockingQueue.
+     * @param executor - thread pool for searches
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new NullPointerException("Executor must not be null");
         }
-        if (mExecutor == null) {
-            throw new NullPointerException("Thread max number must be provided via setMaxThreads()");
+        releaseInternalExecutor();
+        mExecutor = executor;
+        mExternalExecutor = true;
+    }
+
+    /**
+     * Sets order in which queued rooms are visited. Default is SchedulingStrategy.FIFO.
+     * @param strategy - scheduling strategy
+     */
+    public synchronized void setSchedulingStrategy(SchedulingStrategy strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("Scheduling strategy must not be null");
         }
-        // search exits
-        runPathFinding(mi);
+        mSchedulingStrategy = strategy;
+        // rebuild executor, so its queue matches new strategy
+        releaseInternalExecutor();
     }
 
-    @Override
-    public void registerObserver(Runnable code) {
-        this.mObserver = code;
+    /**
+     * Sets kind of thread pool used for search. Default is SearchEngine.EXECUTOR.
+     * SearchEngine.FORK_JOIN ignores scheduling strategy - every worker visits its own subtrees depth first
+     * and steals work from other workers only when idle.
+     * @param engine - search engine
+     */
+    public synchronized void setSearchEngine(SearchEngine engine) {
+        if (engine == null) {
+            throw new NullPointerException("Search engine must not be null");
+        }
+        mSearchEngine = engine;
+        releaseInternalExecutor();
     }
 
-    @Override
-    public synchronized boolean exitFound() {
-       return getExitFound();
+    /**
+     * Sets max number of rooms visited by one executor task. Corridors found during visit are kept
+     * on task local stack until it holds batchSize rooms, surplus is handed back to shared thread pool.
+     * Default is 1 - every room is visited by separate task. Ignored by SearchEngine.FORK_JOIN.
+     * @param batchSize - max rooms per task
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        mBatchSize = batchSize;
     }
 
-    @Override
-    public double getShortestDistanceToExit() {
-        return getCurrentDistanceToExit();
+    /**
+     * Limits time of following searches. Search which exceeds the limit is stopped, its result is marked
+     * as partial, and rooms still queued are dropped. Limit is checked whenever a room is about to be visited.
+     * @param timeout - time limit, 0 means no limit
+     * @param unit - time unit of timeout
+     */
+    public synchronized void setSearchTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        mTimeoutNanos = unit.toNanos(timeout);
     }
 
+    /**
+     * Makes following searches stop at first exit not farther than given distance from entrance,
+     * instead of searching for the closest one. For example known lower bound of exit distance
+     * plus acceptable error. Result of such search is marked as partial.
+     * @param distance - good enough exit distance, Double.NEGATIVE_INFINITY disables early stop
+     */
+    public synchronized void setStopDistance(double distance) {
+        mStopDistance = distance;
+    }
 
-    private boolean getExitFound(){
-        boolean result = false;
-        mRoomLock.readLock().lock();
-        try {
-            result = mExitFound;
-        } finally {
-            mRoomLock.readLock().unlock();
+    /**
+     * Makes following searches visit every room only once, even if it is reachable by many corridors.
+     * Required for labyrinths with shared rooms (DAGs) or cycles - without it shared rooms are visited
+     * once per path, and cycle makes search never end. Default is false, which is cheaper for trees.
+     * @param deduplicateRooms - true to track visited rooms
+     */
+    public synchronized void setDeduplicateRooms(boolean deduplicateRooms) {
+        mDeduplicateRooms = deduplicateRooms;
+    }
+
+    /**
+     * Makes following searches check every corridor of visited room before scheduling it. Exits among corridors
+     * are recorded at once, and corridors not closer than exit found are never queued, which greatly reduces
+     * queued tasks on wide labyrinths. Default is false - corridor methods are then called by the thread
+     * visiting the corridor, which spreads cost of slow rooms over all threads.
+     * @param eagerChildPruning - true to check corridors before scheduling
+     */
+    public synchronized void setEagerChildPruning(boolean eagerChildPruning) {
+        mEagerChildPruning = eagerChildPruning;
+    }
+
+    /**
+     * Sets estimate of remaining distance to exit used by following searches. Room is skipped when its
+     * distance plus estimate is not closer than exit found, and with SchedulingStrategy.BEST_FIRST rooms
+     * are visited in order of distance plus estimate, which makes search a parallel A*.
+     * Estimate must never exceed real distance, otherwise closest exit may be missed.
+     * @param heuristic - admissible estimate, null to prune on room distance only
+     */
+    public synchronized void setExitDistanceHeuristic(ExitDistanceHeuristic heuristic) {
+        mHeuristic = heuristic;
+    }
+
+    /**
+     * Makes following searches remember route to closest exit, see getShortestPathToExit() and
+     * SearchResult.getShortestPath(). Every queued room keeps link to route of its parent, so memory used
+     * for routes follows rooms waiting for visit, not the whole labyrinth. Default is false.
+     * @param trackShortestPath - true to track route to closest exit
+     */
+    public synchronized void setTrackShortestPath(boolean trackShortestPath) {
+        mTrackShortestPath = trackShortestPath;
+    }
+
+    /**
+     * Enables mode for rooms which block in corridors(), for example loading them from storage.
+     * At most given number of corridors() calls are in progress at the same time, in all searches.
+     * Calls are made in ForkJoinPool.managedBlock(), so with SearchEngine.FORK_JOIN the pool starts spare
+     * threads while workers are loading rooms, and has at most setMaxThreads() plus maxLoads threads.
+     * SearchEngine.EXECUTOR can not compensate blocked threads - its internal pool gets at least as many
+     * threads as there are permitted loads, one OS thread per load, so use SearchEngine.FORK_JOIN
+     * when many loads should be in progress with few threads.
+     * @param maxLoads - max number of corridors() calls in progress, 0 to disable
+     */
+    public synchronized void setBlockingRoomLoads(int maxLoads) {
+        if (maxLoads < 0) {
+            throw new IllegalArgumentException("Room load number must not be negative, got " + maxLoads);
         }
-        return result;
+        mMaxRoomLoads = maxLoads;
+        mRoomLoads = maxLoads > 0 ? new Semaphore(maxLoads) : null;
+        // internal executor size depends on room load number
+        releaseInternalExecutor();
     }
 
-    private double getCurrentDistanceToExit(){
-        double result = -1d;
-        mRoomLock.readLock().lock();
-        try {
-            result = mShortestDistanceToExit;
-        } finally {
-            mRoomLock.readLock().unlock();
+    /**
+     * Sets index answering following searches from rooms of its labyrinth, see ExitDistanceIndex.build().
+     * Search from entrance obtained by getRoom() of indexed labyrinth, or from room of object labyrinth
+     * index was built from, completes at once with indexed distance, without visiting any room
+     * and without route. Other entrances, and queries for many exits, are searched.
+     * Index must be replaced after labyrinth changes.
+     * @param index - index with labyrinth, or null to search every entrance
+     */
+    public synchronized void setExitDistanceIndex(ExitDistanceIndex index) {
+        if (index != null && index.getLabyrinth() == null) {
+            throw new IllegalArgumentException("Index must be read with its labyrinth");
         }
-        return result;
+        mExitDistanceIndex = index;
+    }
+
+    /**
+     * Makes internal thread pool of SearchEngine.EXECUTOR adapt its number of threads to work queued
+     * while searches run, between 1 and number set by setMaxThreads(). Pool grows at once when queued rooms
+     * pile up, and shrinks gradually while few rooms are queued, so narrow labyrinths are not visited by
+     * many threads contending on the queue. Chosen parallelism is reported by PathFinderStats.
+     * Ignored by SearchEngine.FORK_JOIN, whose idle workers already park, and by executor set by setExecutor().
+     * Default is false - pool runs all threads whenever there is work.
+     * @param adaptiveParallelism - true to adapt number of threads
+     */
+    public synchronized void setAdaptiveParallelism(boolean adaptiveParallelism) {
+        mAdaptiveParallelism = adaptiveParallelism;
+        releaseInternalExecutor();
+    }
+
+    /**
+     * @return statistics of all searches run by this PathFinder
+     */
+    public PathFinderStats getStatistics() {
+        return mStats;
     }
 
+    /**
+     * Registers statistics in platform MBean server, as PathFinder:type=Stats,name=given name.
+     * @param name - name distinguishing this PathFinder
+     * @return registered MBean name
+     * @throws JMException if MBean can not be registered, for example name is already used
+     */
+    public ObjectName registerStatisticsMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("PathFinder:type=Stats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mStats, objectName);
+        return objectName;
+    }
 
     /**
-     * Main path finding loop.
-     * 1.   It provides mExecutor with initial room.
-     * 2.   Then it waits for job to stop.
-     * 3.   Then notifies mObserver
-     * @param mi - initial room (entrance)
+     * Cancels search started by last entranceToTheLabyrinth() call. Observer is notified at once, and
+     * isLastSearchPartial() returns true. Rooms still queued are dropped without visiting.
      */
-    private void runPathFinding(RoomInterface mi) {
-        // run path searching
-        mfinisherThread = new Thread(new Runnable() {
+    public void cancel() {
+        PathSearch search = mCurrentSearch;
+        if (search != null) {
+            search.cancel();
+        }
+    }
+
+    /**
+     * @return number of rooms visited so far by current search. Useful for comparing scheduling strategies.
+     */
+    public long getVisitedRoomCount() {
+        PathSearch search = mCurrentSearch;
+        return search == null ? 0L : search.getVisitedRoomCount();
+    }
+
+    /**
+     * @return true if search started by last entranceToTheLabyrinth() call was finished partially - cancelled,
+     * stopped by timeout, or stopped at exit not farther than stop distance - so closer exit may exist.
+     * Valid once observer is notified, false while search is running or if it failed
+     */
+    public boolean isLastSearchPartial() {
+        PathSearch search = mCurrentSearch;
+        if (search == null) {
+            return false;
+        }
+        CompletableFuture<SearchResult> result = search.getResult();
+        return result.isDone() && !result.isCompletedExceptionally() && result.join().isPartial();
+    }
+
+    /**
+     * @return number of tasks submitted to thread pool so far by current search. Compared with
+     * getVisitedRoomCount() it shows how many rooms are visited per task.
+     */
+    public long getSubmittedTaskCount() {
+        PathSearch search = mCurrentSearch;
+        return search == null ? 0L : search.getSubmittedTaskCount();
+    }
+
+    @Override
+    public void entranceToTheLabyrinth(RoomInterface mi) {
+        // search exits
+        PathSearch search = startSearch(mi);
+        mCurrentSearch = search;
+        // observer is notified however search ends, failure is kept for getLastSearchFailure()
+        search.getResult().whenComplete(new BiConsumer<SearchResult, Throwable>() {
             @Override
-            public void run() {
-                notifyObserver();
-                mExecutor.shutdown();
+            public void accept(SearchResult result, Throwable throwable) {
+                try {
+                    notifyObserver();
+                } catch (RuntimeException e) {
+                    // thrown here it would be kept by future nobody reads, so it is reported as uncaught
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
             }
         });
-        addNewRoomsToVisit(mi, INITIAL_ENTRANCE_DISTANCE);
     }
 
-    private void finishSearch() {
-        mfinisherThread.start();
+    /**
+     * @return exception which failed search started by last entranceToTheLabyrinth() call, for example thrown
+     * by room method or rejected by thread pool. Null if search did not fail, or is still running
+     */
+    public Throwable getLastSearchFailure() {
+        PathSearch search = mCurrentSearch;
+        if (search == null || !search.getResult().isCompletedExceptionally()) {
+            return null;
+        }
+        try {
+            search.getResult().join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        }
     }
 
     /**
-     * Notifies observer runnable, about search finished
+     * Starts new search and returns its future result. No additional threads are used -
+     * the future is completed by worker which finished last task of the search.
+     * @param entrance - entrance to the labyrinth
+     * @return future completed with search result
      */
-    private void notifyObserver() {
-        if (mObserver == null) {
-            mExecutor.shutdown();
-            throw new NullPointerException("Observer object must be provided");
-        } else {
-            mObserver.run();
+    public CompletableFuture<SearchResult> search(RoomInterface entrance) {
+        return startSearch(entrance).getResult();
+    }
+
+    /**
+     * Searches closest exits of many entrances into the same labyrinth in one pass. Every room reachable
+     * from any entrance is visited once, and distance of closest exit reachable from it is shared by all
+     * entrances reaching it. Rooms are not pruned, so for single entrance search() is faster.
+     * Search timeout applies to the whole batch - entrances not resolved by then get partial result
+     * with the closest exit found so far. cancel() does not stop the batch, cancel returned future instead.
+     * @param entrances - entrances to the labyrinth
+     * @return future completed with result of every entrance, in order of entrances. Room and task counters
+     * of every result are those of the whole batch. Completed exceptionally with IllegalArgumentException
+     * if labyrinth has cycles
+     */
+    public CompletableFuture<List<SearchResult>> searchAll(Collection<? extends RoomInterface> entrances) {
+        if (entrances == null) {
+            throw new NullPointerException("Entrances must not be null");
+        }
+        List<RoomInterface> entranceList = new ArrayList<RoomInterface>(entrances);
+        for (RoomInterface entrance : entranceList) {
+            if (entrance == null) {
+                throw new NullPointerException("Entrance must not be null");
+            }
         }
+        ExecutorService executor;
+        BatchSearch batch;
+        synchronized (this) {
+            executor = getExecutor();
+            retainExecutor(executor);
+            batch = new BatchSearch(executor);
+            batch.setTimeoutNanos(mTimeoutNanos);
+        }
+        CompletableFuture<List<SearchResult>> result = batch.start(entranceList);
+        releaseExecutorOnCompletion(executor, result);
+        return result;
+    }
+
+    /**
+     * Starts search for given number of exits closest to entrance, see SearchResult.getExits().
+     * Rooms are pruned when they are not closer than the farthest of exits found, once that many are found,
+     * so the search costs little more than search for the closest exit.
+     * @param entrance - entrance to the labyrinth
+     * @param count - number of exits to find
+     * @return future completed with search result
+     */
+    public CompletableFuture<SearchResult> searchNearestExits(RoomInterface entrance, int count) {
+        return startSearch(entrance, new NearestExits(count, Double.POSITIVE_INFINITY)).getResult();
+    }
+
+    /**
+     * Starts search for all exits not farther than given distance from entrance, see SearchResult.getExits().
+     * Rooms farther than given distance are pruned.
+     * @param entrance - entrance to the labyrinth
+     * @param distance - max exit distance
+     * @return future completed with search result
+     */
+    public CompletableFuture<SearchResult> searchExitsWithinDistance(RoomInterface entrance, double distance) {
+        return startSearch(entrance, new NearestExits(Integer.MAX_VALUE, distance)).getResult();
     }
 
+    /**
+     * Starts new search, independent from other searches run by this PathFinder.
+     * Many searches can run at the same time, sharing one thread pool.
+     * @param entrance - entrance to the labyrinth
+     * @return search handle, with its own result and completion state
+     */
+    public PathSearch startSearch(RoomInterface entrance) {
+        return startSearch(entrance, null);
+    }
 
-    private void setShortestDistanceToExit(double distance) {
-        mRoomLock.writeLock().lock();
+    /**
+     * Starts search of labyrinth changed after previous search, which visits only rooms reachable through
+     * changed rooms, so it takes time proportional to the change instead of the whole labyrinth.
+     * Previous search must be finished, not stopped early, and must have been run with setDeduplicateRooms(true).
+     * Its visited rooms are taken over by new search, so it must not be passed here again - chain
+     * following changes on returned search instead. Only added corridors and rooms are supported,
+     * after corridor or exit removal use startSearch().
+     * @param previous - finished search of the same labyrinth
+     * @param changedRooms - rooms whose corridors were added since previous search
+     * @return search handle, with its own result and completion state
+     */
+    public PathSearch startIncrementalSearch(PathSearch previous, Collection<? extends RoomInterface> changedRooms) {
+        if (previous == null) {
+            throw new NullPointerException("Previous search must not be null");
+        }
+        if (changedRooms == null) {
+            throw new NullPointerException("Changed rooms must not be null");
+        }
+        PathSearch search = createSearch(previous.getEntrance());
         try {
-            mShortestDistanceToExit = distance;
-            mExitFound = true;
-        } finally {
-            mRoomLock.writeLock().unlock();
-        }
-    }
-
-    /**
-     * Adds new rooms to queue. This method is synchronized between threads.
-     * @param room - room to visit
-     * @param distanceToParentRoom - room parent distance
-     */
-    private synchronized void addNewRoomsToVisit(RoomInterface room, double distanceToParentRoom) {
-        // increment running visits count
-        mActiveVisits.incrementAndGet();
-        // push new task to main thread pool
-        mExecutor.execute(new VisitRoomTask(room, distanceToParentRoom));
-    }
-
-    /**
-     * Visits room, and updates search info if necessary
-     * @param room - room to visit
-     * @return - false if this room is an exit or has no corridors to visit, true otherwise
-     */
-    private void visitRoom(RoomInterface room) {
-        boolean hasCorridors = false;
-        // check if room is exit
-        boolean isExit = room.isExit();
-        double roomDistance = 0;
-        // check if room is exit
-        if (isExit) {
-            // update info about exit found
-            // check  if any exit has been found earlier
-            if (getExitFound()) {
-                // check if this exit is closer to entrance than previous exit
-                // save this exit distance
-                roomDistance = room.getDistanceFromStart();
-                boolean isCloserThanCurrentExit = Double.compare(roomDistance, getCurrentDistanceToExit()) < 0;
-                if (isCloserThanCurrentExit) {
-                    setShortestDistanceToExit(roomDistance);
-                }
-            } else {
-                roomDistance = room.getDistanceFromStart();
-                setShortestDistanceToExit(roomDistance);
-            }
-        } else if (room.corridors() != null && room.corridors().length > 0) {
-            // if this room is not an exit, check if any exit has been found earlier
-            roomDistance = room.getDistanceFromStart();
-            if (getExitFound()) {
-                // if any exit was found, check, if this room distance is closer - if not, then skip this room corridors
-                // their distance would be greater than current exit, so its bad :)
-                boolean isCloserThanCurrentExit = Double.compare(roomDistance, getCurrentDistanceToExit()) < 0;
-                if (isCloserThanCurrentExit) {
-                    hasCorridors = true;
-                }
-            } else hasCorridors = true;
+            search.startIncremental(previous, changedRooms);
+        } catch (RuntimeException e) {
+            // failed search releases its thread pool
+            search.getResult().completeExceptionally(e);
+            throw e;
         }
-        if (hasCorridors) {
-            // Add every corridor to thread task pool
-            for (RoomInterface corridor : room.corridors()) {
-                addNewRoomsToVisit(corridor, roomDistance);
-            }
+        return search;
+    }
+
+    private PathSearch startSearch(RoomInterface entrance, NearestExits nearestExits) {
+        PathSearch search = createSearch(entrance);
+        ExitDistanceIndex index;
+        synchronized (this) {
+            index = mExitDistanceIndex;
+        }
+        int roomId = nearestExits == null && index != null ? index.getRoomId(entrance) : -1;
+        if (roomId >= 0) {
+            search.startFromIndex(index.getClosestExitDistance(roomId));
+            return search;
         }
+        search.setNearestExits(nearestExits);
+        try {
+            search.start();
+        } catch (RuntimeException e) {
+            // failed search releases its thread pool
+            search.getResult().completeExceptionally(e);
+            throw e;
+        }
+        return search;
     }
 
+    /**
+     * Creates search configured with current settings of this PathFinder.
+     */
+    private PathSearch createSearch(RoomInterface entrance) {
+        if (entrance == null){
+            throw new NullPointerException("Entrance must not be null");
+        }
+        PathSearch search;
+        synchronized (this) {
+            ExecutorService executor = getExecutor();
+            retainExecutor(executor);
+            search = new PathSearch(entrance, executor);
+            releaseExecutorOnCompletion(executor, search.getResult());
+            search.setSchedulingStrategy(mSchedulingStrategy);
+            search.setSearchEngine(mSearchEngine);
+            search.setBatchSize(mBatchSize);
+            search.setTimeoutNanos(mTimeoutNanos);
+            search.setStopDistance(mStopDistance);
+            search.setDeduplicateRooms(mDeduplicateRooms);
+            search.setEagerChildPruning(mEagerChildPruning);
+            search.setHeuristic(mHeuristic);
+            search.setTrackShortestPath(mTrackShortestPath);
+            search.setRoomLoads(mRoomLoads);
+            search.setStatistics(mStats);
+        }
+        return search;
+    }
+
+    /**
+     * Releases internal thread pool. Externally owned executor is left untouched.
+     * Running searches are finished first, pool is shut down after the last of them.
+     * PathFinder can still be used afterwards - new thread pool is created on next search.
+     */
+    public synchronized void shutdown() {
+        releaseInternalExecutor();
+    }
+
+    @Override
+    public void registerObserver(Runnable code) {
+        this.mObserver = code;
+    }
+
+    @Override
+    public boolean exitFound() {
+        PathSearch search = mCurrentSearch;
+        return search != null && search.exitFound();
+    }
 
+    @Override
+    public double getShortestDistanceToExit() {
+        PathSearch search = mCurrentSearch;
+        return search == null ? INITIAL_ENTRANCE_DISTANCE : search.getShortestDistanceToExit();
+    }
 
     /**
-     * Runnable task for visiting rooms in labyrinth.
-     * It is executed by threads in ThreadPoolExecutor
+     * @return rooms from entrance to closest exit found so far by last search, empty if no exit was found
+     * or route is not tracked, see setTrackShortestPath()
      */
-    private class VisitRoomTask implements Runnable {
+    public List<RoomInterface> getShortestPathToExit() {
+        PathSearch search = mCurrentSearch;
+        return search == null ? Collections.<RoomInterface>emptyList() : search.getShortestPathToExit();
+    }
 
-        /** Room object for visit */
-        private RoomInterface room;
-        /** This room parent-room distance from entrance */
-        private double distanceFromParentRoom;
 
-        public VisitRoomTask(RoomInterface room, double distanceFromParentRoom) {
-            this.room = room;
-            this.distanceFromParentRoom = distanceFromParentRoom;
+    /**
+     * @return number of tasks waiting in thread pool queue, 0 if there is no thread pool yet
+     */
+    synchronized long getQueueDepth() {
+        if (mExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) mExecutor).getQueue().size();
         }
+        if (mExecutor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) mExecutor).getQueuedTaskCount() + ((ForkJoinPool) mExecutor).getQueuedSubmissionCount();
+        }
+        return 0L;
+    }
 
-        /**
-         * This method processes one room from executor queue
-         * 0.   It checks validity of labyrinth - corridors must have greater distance than their parent room.
-         * 1.   It checks, if this room parent distance is closer than currently found exit.
-         *      if no exit was found, it assumes that this room is an entrance,
-         *      or a good candidate for searching - there might be an exit after this room.
-         * 2.   Then it checks, if this room is not null, and then launches synchronized block of code
-         *      visitRoom() which updates shared information if necessary.
-         * 3.   If no exit was found, and this room has corridors,
-         *      then it pushes them to mExecutor task queue.
-         */
-        @Override
-        public void run() {
-            if (isParentRoomCloserThenCurrentExitFound()) {
-                // check if room is not null
-                if (room != null) {
-                    visitRoom(room);
-                }
-            }
-            // decrement running visits count
-            int activeVisits = mActiveVisits.decrementAndGet();
-            // check if this is a last visit
-            if (activeVisits == 0) {
-                finishSearch();
+    /**
+     * @return number of threads thread pool runs searches with, 0 if there is no thread pool yet
+     */
+    synchronized int getParallelism() {
+        if (mParallelismController != null) {
+            return mParallelismController.getParallelism();
+        }
+        if (mExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) mExecutor).getMaximumPoolSize();
+        }
+        if (mExecutor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) mExecutor).getParallelism();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns thread pool for next search, creating internal one if needed.
+     * Adaptive parallelism starts watching the pool, if it is idle.
+     * @return thread pool
+     */
+    private ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            if (mMaxThreads == 0) {
+                throw new NullPointerException("Thread max number must be provided via setMaxThreads()");
             }
+            mExecutor = createExecutor();
+            mExternalExecutor = false;
+        }
+        if (mParallelismController != null) {
+            mParallelismController.start();
         }
+        return mExecutor;
+    }
 
-        /**
-         * This method checks if room parent has has shorter distance.
-         * @return
-         */
-        private boolean isParentRoomCloserThenCurrentExitFound() {
-            boolean isCloser = false;
-            // check if an exit was found eariler
-            if (getExitFound()) {
-                boolean isCloserThanCurrentExitFound = Double.compare(distanceFromParentRoom, getCurrentDistanceToExit()) < 0;
-                if (isCloserThanCurrentExitFound) {
-                    isCloser = true;
-                }
-            } else {
-                // if no exit was found earlier, assume this room is a good candidate for search, or it is an entrance
-                isCloser = true;
+    /**
+     * Marks search as user of thread pool, so internal pool is not shut down before search is finished.
+     * @param executor - thread pool of new search
+     */
+    private void retainExecutor(ExecutorService executor) {
+        if (!mExternalExecutor) {
+            Integer searches = mActiveSearches.get(executor);
+            mActiveSearches.put(executor, searches == null ? 1 : searches + 1);
+        }
+    }
+
+    /**
+     * Ends use of thread pool marked by retainExecutor() when search result is completed.
+     * @param executor - thread pool of search
+     * @param result - search result
+     */
+    private void releaseExecutorOnCompletion(final ExecutorService executor, CompletableFuture<?> result) {
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object ignored, Throwable throwable) {
+                releaseExecutor(executor);
             }
-            return isCloser;
+        });
+    }
+
+    /**
+     * Ends use of thread pool by finished search. Internal pool replaced meanwhile is shut down
+     * after its last search.
+     * @param executor - thread pool of search
+     */
+    private synchronized void releaseExecutor(ExecutorService executor) {
+        Integer searches = mActiveSearches.get(executor);
+        if (searches == null) {
+            // externally owned executor
+            return;
+        }
+        if (searches > 1) {
+            mActiveSearches.put(executor, searches - 1);
+            return;
+        }
+        mActiveSearches.remove(executor);
+        if (executor != mExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Shuts down internal thread pool, if any. Pool with running searches is shut down after
+     * the last of them is finished, see releaseExecutor().
+     */
+    private void releaseInternalExecutor() {
+        if (mParallelismController != null) {
+            mParallelismController.shutdown();
+            mParallelismController = null;
+        }
+        if (mExecutor != null && !mExternalExecutor && !mActiveSearches.containsKey(mExecutor)) {
+            mExecutor.shutdown();
+        }
+        if (!mExternalExecutor) {
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Creates thread pool for current search engine. Fixed size executor gets task queue matching
+     * current scheduling strategy. Idle threads are released after THREAD_KEEP_ALIVE_MILLIS,
+     * and started again by next search. Threads are daemons, so pool never shut down does not keep JVM alive.
+     * With adaptive parallelism executor is sized by ParallelismController.
+     * @return new thread pool
+     */
+    private ExecutorService createExecutor() {
+        if (mSearchEngine == SearchEngine.FORK_JOIN) {
+            return new ForkJoinPool(mMaxThreads);
+        }
+        BlockingQueue<Runnable> queue;
+        if (mSchedulingStrategy == SchedulingStrategy.BEST_FIRST) {
+            // every queued task is PrioritizedTask, ordered by room distance, so closest rooms are taken first
+            queue = new PriorityBlockingQueue<Runnable>();
+        } else {
+            queue = new LinkedBlockingQueue<Runnable>();
+        }
+        // blocked room loads would occupy all threads otherwise - fixed size pool has no spare threads,
+        // so every permitted load takes one thread, see setBlockingRoomLoads()
+        int threads = Math.max(mMaxThreads, mMaxRoomLoads);
+        // pool is kept between searches, and callers may never shut it down, so its threads must not keep
+        // JVM alive - like ForkJoinPool workers
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                THREAD_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "PathFinder-worker-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        if (mAdaptiveParallelism) {
+            mParallelismController = new ParallelismController(executor, threads, mStats);
+        }
+        return executor;
+    }
+
+    /**
+     * Notifies observer runnable, about search finished
+     */
+    private void notifyObserver() {
+        if (mObserver == null) {
+            throw new NullPointerException("Observer object must be provided");
+        } else {
+            mObserver.run();
         }
     }
 
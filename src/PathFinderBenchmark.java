@@ -0,0 +1,259 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of PathFinder configurations on generated trees, DAGs and grids of different sizes,
+ * and thread counts.
+ *
+ * For every shape, thread count and configuration it runs warmup searches, then measured searches,
+ * and reports throughput, latency percentiles and bytes allocated per search. Before that, nearest exits
+ * queries of every configuration are checked against brute-force scan of the labyrinth.
+ * Run with: java PathFinderBenchmark [measuredSearches]
+ */
+public class PathFinderBenchmark {
+
+    private static final int WARMUP_SEARCHES = 20;
+    private static final int DEFAULT_MEASURED_SEARCHES = 50;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final long SEED = 42L;
+    /** Number of exits asked for by nearest exits check */
+    private static final int CHECKED_EXIT_COUNT = 10;
+
+    /**
+     * Labyrinth shape - kind of graph, room count, corridors per room and share of exits.
+     * Depth follows from room count and fan-out, fan-out of grid is ignored. DAG and grid rooms are reached
+     * by many paths, so they are searched with room deduplication.
+     */
+    private static final class Shape {
+        final String name;
+        final LabyrinthGenerator.Shape kind;
+        final int roomCount;
+        final int fanOut;
+        final double exitDensity;
+
+        Shape(String name, LabyrinthGenerator.Shape kind, int roomCount, int fanOut, double exitDensity) {
+            this.name = name;
+            this.kind = kind;
+            this.roomCount = roomCount;
+            this.fanOut = fanOut;
+            this.exitDensity = exitDensity;
+        }
+
+        boolean deduplicateRooms() {
+            return kind != LabyrinthGenerator.Shape.TREE;
+        }
+    }
+
+    private static final Shape[] SHAPES = {
+            new Shape("narrow-deep", LabyrinthGenerator.Shape.TREE, 200000, 2, 0.0005),
+            new Shape("wide-shallow", LabyrinthGenerator.Shape.TREE, 200000, 32, 0.0005),
+            new Shape("sparse-exits", LabyrinthGenerator.Shape.TREE, 200000, 4, 0.00001),
+            new Shape("dense-exits", LabyrinthGenerator.Shape.TREE, 200000, 4, 0.01),
+            new Shape("small-tree", LabyrinthGenerator.Shape.TREE, 20000, 4, 0.0005),
+            new Shape("dag", LabyrinthGenerator.Shape.DAG, 200000, 4, 0.0005),
+            new Shape("small-dag", LabyrinthGenerator.Shape.DAG, 20000, 4, 0.0005),
+            new Shape("grid", LabyrinthGenerator.Shape.GRID, 200000, 2, 0.0005),
+            new Shape("small-grid", LabyrinthGenerator.Shape.GRID, 20000, 2, 0.0005),
+    };
+
+    /**
+     * Searched labyrinth representation and PathFinder settings.
+     */
+    private enum Configuration {
+        EXECUTOR_FIFO, EXECUTOR_BEST_FIRST, EXECUTOR_BATCH_64, FORK_JOIN, COMPACT
+    }
+
+    public static void main(String[] args) throws Exception {
+        int measuredSearches = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEASURED_SEARCHES;
+        System.out.printf("%-14s %-20s %7s %10s %10s %10s %10s %14s%n",
+                "shape", "configuration", "threads", "ops/s", "p50 ms", "p90 ms", "p99 ms", "alloc B/op");
+        for (Shape shape : SHAPES) {
+            CompactLabyrinth compact = new LabyrinthGenerator()
+                    .setShape(shape.kind)
+                    .setRoomCount(shape.roomCount)
+                    .setBranchingFactor(shape.fanOut)
+                    .setExitDensity(shape.exitDensity)
+                    .setSeed(SEED)
+                    .generate();
+            RoomInterface objects = toCustomRooms(compact);
+            verifyNearestExits(shape, compact, objects);
+            for (int threads : THREAD_COUNTS) {
+                for (Configuration configuration : Configuration.values()) {
+                    RoomInterface entrance = configuration == Configuration.COMPACT ? compact.getRoom(0) : objects;
+                    run(shape, configuration, threads, entrance, measuredSearches);
+                }
+            }
+        }
+    }
+
+    private static void run(Shape shape, Configuration configuration, int threads, RoomInterface entrance,
+                            int measuredSearches) throws Exception {
+        PathFinder pathFinder = createPathFinder(shape, configuration, threads);
+        try {
+            for (int i = 0; i < WARMUP_SEARCHES; i++) {
+                pathFinder.search(entrance).get();
+            }
+            long[] latencies = new long[measuredSearches];
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < measuredSearches; i++) {
+                long searchStart = System.nanoTime();
+                pathFinder.search(entrance).get();
+                latencies[i] = System.nanoTime() - searchStart;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            Arrays.sort(latencies);
+            System.out.printf("%-14s %-20s %7d %10.1f %10.3f %10.3f %10.3f %14d%n",
+                    shape.name, configuration, threads,
+                    measuredSearches / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)),
+                    percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                    allocated < 0 ? -1 : allocated / measuredSearches);
+        } finally {
+            pathFinder.shutdown();
+        }
+    }
+
+    /**
+     * Checks nearest exits and exits within distance of every configuration, with and without eager child
+     * pruning, against distances of all exits reachable from entrance.
+     * @throws IllegalStateException if any search returns other exits
+     */
+    private static void verifyNearestExits(Shape shape, CompactLabyrinth compact, RoomInterface objects)
+            throws Exception {
+        double[] exitDistances = scanExitDistances(compact);
+        int count = Math.min(CHECKED_EXIT_COUNT, exitDistances.length);
+        double[] nearest = Arrays.copyOf(exitDistances, count);
+        double maxDistance = count > 0 ? exitDistances[count - 1] : 0d;
+        int withinCount = 0;
+        while (withinCount < exitDistances.length && exitDistances[withinCount] <= maxDistance) {
+            withinCount++;
+        }
+        double[] within = Arrays.copyOf(exitDistances, withinCount);
+        int threads = THREAD_COUNTS[THREAD_COUNTS.length - 1];
+        for (Configuration configuration : Configuration.values()) {
+            RoomInterface entrance = configuration == Configuration.COMPACT ? compact.getRoom(0) : objects;
+            for (boolean eagerChildPruning : new boolean[]{false, true}) {
+                PathFinder pathFinder = createPathFinder(shape, configuration, threads);
+                try {
+                    pathFinder.setEagerChildPruning(eagerChildPruning);
+                    checkExits(shape, configuration, "nearest " + count, nearest,
+                            pathFinder.searchNearestExits(entrance, Math.max(1, count)).get().getExits());
+                    checkExits(shape, configuration, "within " + maxDistance, within,
+                            pathFinder.searchExitsWithinDistance(entrance, maxDistance).get().getExits());
+                } finally {
+                    pathFinder.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void checkExits(Shape shape, Configuration configuration, String query, double[] expected,
+                                   List<RoomInterface> exits) {
+        double[] found = new double[exits.size()];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = exits.get(i).getDistanceFromStart();
+        }
+        if (!Arrays.equals(expected, found)) {
+            throw new IllegalStateException(shape.name + " " + configuration + " " + query + ": expected "
+                    + Arrays.toString(expected) + ", found " + Arrays.toString(found));
+        }
+    }
+
+    /**
+     * Brute-force scan of labyrinth.
+     * @return distances of all exits reachable from entrance, closest first
+     */
+    private static double[] scanExitDistances(CompactLabyrinth labyrinth) {
+        boolean[] reached = new boolean[labyrinth.getRoomCount()];
+        double[] distances = new double[labyrinth.getRoomCount()];
+        int exitCount = 0;
+        ArrayDeque<Integer> rooms = new ArrayDeque<Integer>();
+        reached[0] = true;
+        rooms.push(0);
+        while (!rooms.isEmpty()) {
+            int room = rooms.pop();
+            if (labyrinth.isExit(room)) {
+                distances[exitCount++] = labyrinth.getDistanceFromStart(room);
+            }
+            for (int corridor = labyrinth.getCorridorStart(room); corridor < labyrinth.getCorridorEnd(room);
+                 corridor++) {
+                int target = labyrinth.getCorridorTarget(corridor);
+                if (!reached[target]) {
+                    reached[target] = true;
+                    rooms.push(target);
+                }
+            }
+        }
+        distances = Arrays.copyOf(distances, exitCount);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    private static PathFinder createPathFinder(Shape shape, Configuration configuration, int threads) {
+        PathFinder pathFinder = new PathFinder();
+        pathFinder.setMaxThreads(threads);
+        pathFinder.setDeduplicateRooms(shape.deduplicateRooms());
+        switch (configuration) {
+            case EXECUTOR_BEST_FIRST:
+                pathFinder.setSchedulingStrategy(SchedulingStrategy.BEST_FIRST);
+                break;
+            case EXECUTOR_BATCH_64:
+                pathFinder.setBatchSize(64);
+                break;
+            case FORK_JOIN:
+                pathFinder.setSearchEngine(SearchEngine.FORK_JOIN);
+                break;
+            default:
+                break;
+        }
+        return pathFinder;
+    }
+
+    /**
+     * @return latency at given quantile, in milliseconds
+     */
+    private static double percentile(long[] sortedLatencies, double quantile) {
+        int index = (int) Math.ceil(quantile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Sums bytes allocated by all live threads. Requires HotSpot ThreadMXBean, returns -1 otherwise.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadBean;
+        long total = 0;
+        for (long allocated : hotSpotBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Builds object graph of CustomRoom with the same rooms and corridors.
+     */
+    private static RoomInterface toCustomRooms(CompactLabyrinth labyrinth) {
+        CustomRoom[] rooms = new CustomRoom[labyrinth.getRoomCount()];
+        for (int room = 0; room < rooms.length; room++) {
+            rooms[room] = new CustomRoom(room, labyrinth.isExit(room), labyrinth.getDistanceFromStart(room));
+        }
+        for (int room = 0; room < rooms.length; room++) {
+            for (int corridor = labyrinth.getCorridorStart(room); corridor < labyrinth.getCorridorEnd(room);
+                 corridor++) {
+                rooms[room].addRoom(rooms[labyrinth.getCorridorTarget(corridor)]);
+            }
+        }
+        return rooms[0];
+    }
+}
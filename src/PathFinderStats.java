@@ -0,0 +1,273 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of all searches run by one PathFinder.
+ *
+ * Counters are striped LongAdders. Room counters of a search are added when the search finishes,
+ * so the hot loop only updates counters of its own search. Busy time of worker threads costs
+ * two System.nanoTime() calls per task, so it is collected only when enabled.
+ */
+public class PathFinderStats implements PathFinderStatsMBean {
+
+    /** Number of buckets of latency histogram - one per bit of long */
+    private static final int HISTOGRAM_SIZE = 64;
+
+    private final PathFinder mPathFinder;
+    private final LongAdder mSearchesStarted;
+    private final LongAdder mSearchesFinished;
+    private final LongAdder mRoomsVisited;
+    private final LongAdder mRoomsPruned;
+    private final LongAdder mBoundImprovements;
+    private final LongAdder mTasksSubmitted;
+    private final LongAdder[] mSearchLatencyHistogram;
+    /** Busy time of every worker thread. Threads of pool come and go, so terminated ones are removed
+     * when new one is added, and their time moves to mRetiredBusyNanos */
+    private final ConcurrentHashMap<Thread, LongAdder> mWorkerBusyNanos;
+    /** Busy time of terminated worker threads */
+    private final LongAdder mRetiredBusyNanos;
+    /** Time spent by thread pool at every parallelism chosen by adaptive parallelism, by thread number */
+    private final ConcurrentHashMap<Integer, LongAdder> mParallelismNanos;
+    private final LongAdder mParallelismChanges;
+    private volatile boolean mBusyTimeEnabled;
+
+    PathFinderStats(PathFinder pathFinder) {
+        mPathFinder = pathFinder;
+        mSearchesStarted = new LongAdder();
+        mSearchesFinished = new LongAdder();
+        mRoomsVisited = new LongAdder();
+        mRoomsPruned = new LongAdder();
+        mBoundImprovements = new LongAdder();
+        mTasksSubmitted = new LongAdder();
+        mSearchLatencyHistogram = new LongAdder[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            mSearchLatencyHistogram[i] = new LongAdder();
+        }
+        mWorkerBusyNanos = new ConcurrentHashMap<Thread, LongAdder>();
+        mRetiredBusyNanos = new LongAdder();
+        mParallelismNanos = new ConcurrentHashMap<Integer, LongAdder>();
+        mParallelismChanges = new LongAdder();
+        mBusyTimeEnabled = false;
+    }
+
+    void recordSearchStarted() {
+        mSearchesStarted.increment();
+    }
+
+    void recordSearchFinished(SearchResult result) {
+        mSearchesFinished.increment();
+        mRoomsVisited.add(result.getVisitedRoomCount());
+        mRoomsPruned.add(result.getPrunedRoomCount());
+        mBoundImprovements.add(result.getBoundImprovementCount());
+        mTasksSubmitted.add(result.getSubmittedTaskCount());
+        long elapsed = Math.max(1L, result.getElapsedNanos());
+        mSearchLatencyHistogram[63 - Long.numberOfLeadingZeros(elapsed)].increment();
+    }
+
+    /**
+     * @return start time for recordBusyTime(), or 0 if busy time is not collected
+     */
+    long startBusyTime() {
+        return mBusyTimeEnabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Adds time since start to busy time of current thread.
+     * @param start - value returned by startBusyTime()
+     */
+    void recordBusyTime(long start) {
+        if (start != 0L) {
+            long busy = System.nanoTime() - start;
+            Thread worker = Thread.currentThread();
+            LongAdder adder = mWorkerBusyNanos.get(worker);
+            if (adder == null) {
+                removeTerminatedWorkers();
+                LongAdder newAdder = new LongAdder();
+                adder = mWorkerBusyNanos.putIfAbsent(worker, newAdder);
+                if (adder == null) {
+                    adder = newAdder;
+                }
+            }
+            adder.add(busy);
+        }
+    }
+
+    /**
+     * Moves busy time of terminated worker threads to retired busy time, so map holds live threads only.
+     */
+    private void removeTerminatedWorkers() {
+        Iterator<Map.Entry<Thread, LongAdder>> iterator = mWorkerBusyNanos.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Thread, LongAdder> entry = iterator.next();
+            // terminated thread adds no more time, and only thread which removed it counts it
+            if (!entry.getKey().isAlive() && mWorkerBusyNanos.remove(entry.getKey(), entry.getValue())) {
+                mRetiredBusyNanos.add(entry.getValue().sum());
+            }
+        }
+    }
+
+    /**
+     * Adds time spent by thread pool at given parallelism.
+     * @param parallelism - number of pool threads
+     * @param nanos - time spent
+     */
+    void recordParallelism(int parallelism, long nanos) {
+        LongAdder adder = mParallelismNanos.get(parallelism);
+        if (adder == null) {
+            LongAdder newAdder = new LongAdder();
+            adder = mParallelismNanos.putIfAbsent(parallelism, newAdder);
+            if (adder == null) {
+                adder = newAdder;
+            }
+        }
+        adder.add(nanos);
+    }
+
+    void recordParallelismChange() {
+        mParallelismChanges.increment();
+    }
+
+    @Override
+    public long getSearchesStarted() {
+        return mSearchesStarted.sum();
+    }
+
+    @Override
+    public long getSearchesFinished() {
+        return mSearchesFinished.sum();
+    }
+
+    @Override
+    public long getRoomsVisited() {
+        return mRoomsVisited.sum();
+    }
+
+    @Override
+    public long getRoomsPruned() {
+        return mRoomsPruned.sum();
+    }
+
+    @Override
+    public long getBoundImprovements() {
+        return mBoundImprovements.sum();
+    }
+
+    @Override
+    public long getTasksSubmitted() {
+        return mTasksSubmitted.sum();
+    }
+
+    /**
+     * @return number of tasks waiting in PathFinder thread pool queue
+     */
+    @Override
+    public long getQueueDepth() {
+        return mPathFinder.getQueueDepth();
+    }
+
+    /**
+     * @return busy time of all worker threads, including terminated ones
+     */
+    @Override
+    public long getTotalBusyNanos() {
+        long total = mRetiredBusyNanos.sum();
+        for (LongAdder adder : mWorkerBusyNanos.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return busy time of every live worker thread, by thread name
+     */
+    public Map<String, Long> getWorkerBusyNanos() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<Thread, LongAdder> entry : mWorkerBusyNanos.entrySet()) {
+            if (entry.getKey().isAlive()) {
+                String name = entry.getKey().getName();
+                Long busy = result.get(name);
+                result.put(name, entry.getValue().sum() + (busy == null ? 0L : busy));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of threads PathFinder thread pool currently runs searches with, 0 if there is no pool yet
+     */
+    @Override
+    public int getParallelism() {
+        return mPathFinder.getParallelism();
+    }
+
+    @Override
+    public long getParallelismChanges() {
+        return mParallelismChanges.sum();
+    }
+
+    /**
+     * @return time spent by thread pool at every parallelism chosen while searches were running,
+     * by number of threads. Empty unless adaptive parallelism is enabled
+     */
+    public Map<Integer, Long> getParallelismNanos() {
+        Map<Integer, Long> result = new HashMap<Integer, Long>();
+        for (Map.Entry<Integer, LongAdder> entry : mParallelismNanos.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isBusyTimeEnabled() {
+        return mBusyTimeEnabled;
+    }
+
+    @Override
+    public void setBusyTimeEnabled(boolean enabled) {
+        mBusyTimeEnabled = enabled;
+    }
+
+    @Override
+    public long[] getSearchLatencyHistogram() {
+        long[] histogram = new long[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            histogram[i] = mSearchLatencyHistogram[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        mSearchesStarted.reset();
+        mSearchesFinished.reset();
+        mRoomsVisited.reset();
+        mRoomsPruned.reset();
+        mBoundImprovements.reset();
+        mTasksSubmitted.reset();
+        for (LongAdder adder : mSearchLatencyHistogram) {
+            adder.reset();
+        }
+        mWorkerBusyNanos.clear();
+        mRetiredBusyNanos.reset();
+        mParallelismNanos.clear();
+        mParallelismChanges.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "PathFinderStats{" +
+                "searchesStarted=" + getSearchesStarted() +
+                ", searchesFinished=" + getSearchesFinished() +
+                ", roomsVisited=" + getRoomsVisited() +
+                ", roomsPruned=" + getRoomsPruned() +
+                ", boundImprovements=" + getBoundImprovements() +
+                ", tasksSubmitted=" + getTasksSubmitted() +
+                ", queueDepth=" + getQueueDepth() +
+                ", parallelism=" + getParallelism() +
+                ", totalBusyNanos=" + getTotalBusyNanos() +
+                '}';
+    }
+}
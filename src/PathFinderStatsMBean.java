@@ -0,0 +1,39 @@
+/**
+ * JMX view of PathFinder statistics, see PathFinderStats.
+ */
+public interface PathFinderStatsMBean {
+
+    long getSearchesStarted();
+
+    long getSearchesFinished();
+
+    long getRoomsVisited();
+
+    long getRoomsPruned();
+
+    long getBoundImprovements();
+
+    long getTasksSubmitted();
+
+    long getQueueDepth();
+
+    int getParallelism();
+
+    /**
+     * @return number of thread pool resizes made by adaptive parallelism
+     */
+    long getParallelismChanges();
+
+    long getTotalBusyNanos();
+
+    boolean isBusyTimeEnabled();
+
+    void setBusyTimeEnabled(boolean enabled);
+
+    /**
+     * @return count of searches by latency, entry n counts searches which took from 2^n to 2^(n+1) - 1 nanoseconds
+     */
+    long[] getSearchLatencyHistogram();
+
+    void reset();
+}
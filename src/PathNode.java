@@ -0,0 +1,47 @@
+/**
+ * Immutable link of route from entrance to room, pointing to link of parent room.
+ *
+ * Links are shared by all corridors of a room, and are referenced only by queued rooms and by the closest
+ * exit found, so links of pruned rooms are garbage collected and memory follows the search frontier.
+ */
+final class PathNode {
+
+    /** Room object, null if room is identified by mRoomId in LabyrinthGraph */
+    private final RoomInterface mRoom;
+    /** Room id in LabyrinthGraph, -1 if mRoom is set */
+    private final int mRoomId;
+    /** Room distance from entrance */
+    private final double mDistance;
+    /** Link of parent room, null for entrance */
+    private final PathNode mParent;
+
+    PathNode(RoomInterface room, double distance, PathNode parent) {
+        mRoom = room;
+        mRoomId = -1;
+        mDistance = distance;
+        mParent = parent;
+    }
+
+    PathNode(int roomId, double distance, PathNode parent) {
+        mRoom = null;
+        mRoomId = roomId;
+        mDistance = distance;
+        mParent = parent;
+    }
+
+    /**
+     * @param labyrinth - labyrinth of room ids, used only if room object is not kept
+     * @return room of this link
+     */
+    RoomInterface getRoom(LabyrinthGraph labyrinth) {
+        return mRoom != null ? mRoom : labyrinth.getRoom(mRoomId);
+    }
+
+    double getDistance() {
+        return mDistance;
+    }
+
+    PathNode getParent() {
+        return mParent;
+    }
+}
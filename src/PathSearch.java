@@ -0,0 +1,1071 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Single search for closest exit, started by PathFinder.
+ *
+ * Every search has its own exit bound, counters and completion tracking, so many searches
+ * can run at the same time on one shared thread pool.
+ */
+class PathSearch {
+
+    /** Initial entrance distance value */
+    private static final double INITIAL_ENTRANCE_DISTANCE = ExitDistanceBound.INITIAL_DISTANCE;
+    /** Size of local room stack of compact labyrinth task, above which half of it is handed to other threads */
+    private static final int COMPACT_SPLIT_THRESHOLD = 16;
+
+    /** Shared info about exit search result and shortest distance to exit */
+    private final ExitDistanceBound mShortestDistanceToExit;
+    /** Route to closest exit found, null if no exit was found or routes are not tracked */
+    private final AtomicReference<PathNode> mShortestPath;
+    /** True if route to closest exit is tracked */
+    private boolean mTrackShortestPath;
+    /** Exits closest to entrance, null if only the closest one is searched for */
+    private NearestExits mNearestExits;
+    /** Permits for corridors() calls, shared with other searches, null if room loads are not limited */
+    private Semaphore mRoomLoads;
+
+    /** Number of tasks of this search which are queued or running */
+    private final AtomicInteger mActiveVisits;
+    /** Number of rooms visited during search */
+    private final LongAdder mVisitedRooms;
+    /** Number of tasks submitted to thread pool during search */
+    private final LongAdder mSubmittedTasks;
+    /** Number of rooms skipped because their parent was not closer than exit found */
+    private final LongAdder mPrunedRooms;
+    /** Number of times shortest distance to exit was improved */
+    private final LongAdder mBoundImprovements;
+    /** Statistics of PathFinder running this search, may be null */
+    private PathFinderStats mStats;
+    /** Completed with search result when last task of this search is done */
+    private final CompletableFuture<SearchResult> mResult;
+    /** Search start time, from System.nanoTime() */
+    private long mStartNanos;
+    /** True if search was started and counted in statistics */
+    private volatile boolean mStarted;
+    /** Set when search was cancelled, timed out or found good enough exit - queued rooms are dropped */
+    private volatile boolean mStopped;
+    /** Search time limit, 0 if search is not limited */
+    private long mTimeoutNanos;
+    /** Search stops at first exit not farther than this distance */
+    private double mStopDistance;
+    /** True if corridors are checked before they are scheduled */
+    private boolean mEagerChildPruning;
+    /** Estimate of distance from room to closest exit, null if rooms are pruned on their own distance only */
+    private ExitDistanceHeuristic mHeuristic;
+    /** True if every room should be visited only once */
+    private boolean mDeduplicateRooms;
+    /** Rooms already visited by this search, null if rooms are not deduplicated */
+    private RoomIdentitySet mVisitedRoomSet;
+    /** Ids of compact labyrinth rooms already visited, null if rooms are not deduplicated */
+    private AtomicBitSet mVisitedCompactRooms;
+
+    /** Entrance to the labyrinth */
+    private final RoomInterface mEntrance;
+    /** Thread pool running this search tasks */
+    private final Executor mExecutor;
+    /** Order of visiting queued rooms */
+    private SchedulingStrategy mSchedulingStrategy;
+    /** Kind of tasks used for search */
+    private SearchEngine mSearchEngine;
+    /** Max number of rooms visited by one VisitRoomTask */
+    private int mBatchSize;
+
+    public PathSearch(RoomInterface entrance, Executor executor) {
+        if (entrance == null) {
+            throw new NullPointerException("Entrance must not be null");
+        }
+        if (executor == null) {
+            throw new NullPointerException("Executor must not be null");
+        }
+        mEntrance = entrance;
+        mExecutor = executor;
+        mShortestDistanceToExit = new ExitDistanceBound();
+        mShortestPath = new AtomicReference<PathNode>();
+        mActiveVisits = new AtomicInteger();
+        mVisitedRooms = new LongAdder();
+        mSubmittedTasks = new LongAdder();
+        mPrunedRooms = new LongAdder();
+        mBoundImprovements = new LongAdder();
+        mResult = new CompletableFuture<SearchResult>();
+        mBatchSize = 1;
+        mSchedulingStrategy = SchedulingStrategy.FIFO;
+        mSearchEngine = SearchEngine.EXECUTOR;
+        mStopped = false;
+        mTimeoutNanos = 0L;
+        mStopDistance = Double.NEGATIVE_INFINITY;
+        // cancelling or failing result future stops the search as well. Statistics count every started search
+        // as finished here, however its result was completed
+        mResult.whenComplete(new BiConsumer<SearchResult, Throwable>() {
+            @Override
+            public void accept(SearchResult result, Throwable throwable) {
+                if (throwable != null) {
+                    mStopped = true;
+                }
+                if (mStats != null && mStarted) {
+                    mStats.recordSearchFinished(result != null ? result : createResult(true));
+                }
+            }
+        });
+    }
+
+    void setSchedulingStrategy(SchedulingStrategy strategy) {
+        mSchedulingStrategy = strategy;
+    }
+
+    void setSearchEngine(SearchEngine engine) {
+        mSearchEngine = engine;
+    }
+
+    void setBatchSize(int batchSize) {
+        mBatchSize = batchSize;
+    }
+
+    void setTimeoutNanos(long timeoutNanos) {
+        mTimeoutNanos = timeoutNanos;
+    }
+
+    void setStopDistance(double stopDistance) {
+        mStopDistance = stopDistance;
+    }
+
+    void setEagerChildPruning(boolean eagerChildPruning) {
+        mEagerChildPruning = eagerChildPruning;
+    }
+
+    void setHeuristic(ExitDistanceHeuristic heuristic) {
+        mHeuristic = heuristic;
+    }
+
+    void setTrackShortestPath(boolean trackShortestPath) {
+        mTrackShortestPath = trackShortestPath;
+    }
+
+    void setNearestExits(NearestExits nearestExits) {
+        mNearestExits = nearestExits;
+    }
+
+    void setRoomLoads(Semaphore roomLoads) {
+        mRoomLoads = roomLoads;
+    }
+
+    void setStatistics(PathFinderStats stats) {
+        mStats = stats;
+    }
+
+    void setDeduplicateRooms(boolean deduplicateRooms) {
+        mDeduplicateRooms = deduplicateRooms;
+    }
+
+    /**
+     * Starts search by submitting entrance to thread pool.
+     * Entrance of LabyrinthGraph is searched directly on its storage, regardless of search engine.
+     */
+    void start() {
+        recordStart();
+        if (mEntrance instanceof CompactRoom) {
+            CompactRoom entrance = (CompactRoom) mEntrance;
+            LabyrinthGraph labyrinth = entrance.getLabyrinth();
+            if (mDeduplicateRooms) {
+                mVisitedCompactRooms = new AtomicBitSet(labyrinth.getRoomCount());
+            }
+            addCompactRoomsToVisit(new VisitCompactRoomsTask(labyrinth, new int[]{entrance.getId()},
+                    new double[]{INITIAL_ENTRANCE_DISTANCE}, mTrackShortestPath ? new PathNode[1] : null, 1));
+            return;
+        }
+        if (mDeduplicateRooms) {
+            mVisitedRoomSet = new RoomIdentitySet();
+        }
+        if (mSearchEngine == SearchEngine.FORK_JOIN) {
+            if (!(mExecutor instanceof ForkJoinPool)) {
+                throw new IllegalStateException("Fork/join engine requires ForkJoinPool executor");
+            }
+            mSubmittedTasks.increment();
+            try {
+                ((ForkJoinPool) mExecutor).execute(
+                        new VisitSubtreeTask(null, mEntrance, INITIAL_ENTRANCE_DISTANCE, null));
+            } catch (RejectedExecutionException e) {
+                mSubmittedTasks.decrement();
+                failSearch(e);
+            }
+        } else {
+            addNewRoomsToVisit(mEntrance, INITIAL_ENTRANCE_DISTANCE, null);
+        }
+    }
+
+    /**
+     * Records search start time, and counts search in statistics.
+     */
+    private void recordStart() {
+        mStartNanos = System.nanoTime();
+        if (mStats != null) {
+            mStats.recordSearchStarted();
+        }
+        mStarted = true;
+    }
+
+    /**
+     * Completes search at once with closest exit distance read from ExitDistanceIndex.
+     * @param closestExitDistance - indexed distance of entrance, ExitDistanceIndex.NO_EXIT_DISTANCE if none
+     */
+    void startFromIndex(double closestExitDistance) {
+        recordStart();
+        if (closestExitDistance != ExitDistanceIndex.NO_EXIT_DISTANCE) {
+            setShortestDistanceToExit(closestExitDistance, null);
+        }
+        finishSearch();
+    }
+
+    /**
+     * Starts search of labyrinth changed after previous search. Previous search state is taken over -
+     * its closest exit is the initial bound, and its visited rooms are not visited again. Only corridors
+     * of changed rooms which previous search visited are searched, as other changed rooms were either
+     * unreachable from entrance, or pruned, so they can not lead to closer exit.
+     * Only added corridors and rooms are supported - after corridor or exit removal full search is needed.
+     * Rooms are visited by VisitRoomTask regardless of search engine, and route to exit is not tracked.
+     * @param previous - finished search of the same labyrinth, which deduplicated rooms
+     * @param changedRooms - rooms whose corridors were added since previous search
+     */
+    void startIncremental(PathSearch previous, Collection<? extends RoomInterface> changedRooms) {
+        if (!previous.mResult.isDone() || previous.mResult.isCancelled()) {
+            throw new IllegalArgumentException("Previous search must be finished");
+        }
+        if (previous.mResult.join().isPartial()) {
+            throw new IllegalArgumentException("Previous search was stopped before whole labyrinth was searched");
+        }
+        if (mEntrance instanceof CompactRoom) {
+            throw new IllegalArgumentException("LabyrinthGraph rooms can not be changed");
+        }
+        if (previous.mVisitedRoomSet == null) {
+            throw new IllegalArgumentException("Previous search must deduplicate rooms, see setDeduplicateRooms()");
+        }
+        recordStart();
+        mTrackShortestPath = false;
+        mVisitedRoomSet = previous.mVisitedRoomSet;
+        if (previous.exitFound()) {
+            mShortestDistanceToExit.offer(previous.getShortestDistanceToExit());
+        }
+        // hold search open until all changed rooms are submitted
+        mActiveVisits.incrementAndGet();
+        for (RoomInterface room : changedRooms) {
+            if (room == null || room.isExit() || !mVisitedRoomSet.contains(room)) {
+                continue;
+            }
+            double roomDistance = room.getDistanceFromStart();
+            if (!isCloserThanBound(getExitDistanceLowerBound(room, roomDistance))) {
+                mPrunedRooms.increment();
+                continue;
+            }
+            RoomInterface[] corridors = loadCorridors(room);
+            // corridors visited by previous search are skipped by visitRoom()
+            int corridorCount = Corridors.count(room, corridors);
+            for (int i = 0; i < corridorCount; i++) {
+                RoomInterface corridor = Corridors.get(room, corridors, i);
+                if (shouldScheduleCorridor(corridor, null)) {
+                    addNewRoomsToVisit(corridor, roomDistance, null);
+                }
+            }
+        }
+        if (mActiveVisits.decrementAndGet() == 0) {
+            finishSearch();
+        }
+    }
+
+    /**
+     * @return entrance to the labyrinth
+     */
+    public RoomInterface getEntrance() {
+        return mEntrance;
+    }
+
+    /**
+     * @return true if any exit was found
+     */
+    public boolean exitFound() {
+        return mShortestDistanceToExit.isFound();
+    }
+
+    /**
+     * @return shortest distance to exit found so far, Double.MAX_VALUE if no exit was found
+     */
+    public double getShortestDistanceToExit() {
+        return mShortestDistanceToExit.get();
+    }
+
+    /**
+     * @return rooms from entrance to closest exit found so far, empty if no exit was found
+     * or route is not tracked
+     */
+    public List<RoomInterface> getShortestPathToExit() {
+        PathNode node = mShortestPath.get();
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        LabyrinthGraph labyrinth = mEntrance instanceof CompactRoom ? ((CompactRoom) mEntrance).getLabyrinth() : null;
+        ArrayList<RoomInterface> path = new ArrayList<RoomInterface>();
+        for (; node != null; node = node.getParent()) {
+            path.add(node.getRoom(labyrinth));
+        }
+        Collections.reverse(path);
+        return Collections.unmodifiableList(path);
+    }
+
+    /**
+     * @return exits found so far by query for many exits, closest first, empty if only the closest exit
+     * is searched for
+     */
+    public List<RoomInterface> getExits() {
+        return mNearestExits == null ? Collections.<RoomInterface>emptyList() : mNearestExits.getExits();
+    }
+
+    /**
+     * @return true if search is finished
+     */
+    public boolean isFinished() {
+        return mResult.isDone();
+    }
+
+    /**
+     * @return future completed with search result when search is finished
+     */
+    public CompletableFuture<SearchResult> getResult() {
+        return mResult;
+    }
+
+    /**
+     * Cancels search. Result is completed at once and marked as partial,
+     * rooms still queued in thread pool are dropped without visiting.
+     */
+    public void cancel() {
+        stopSearch();
+    }
+
+    /**
+     * @return number of rooms visited so far
+     */
+    public long getVisitedRoomCount() {
+        return mVisitedRooms.sum();
+    }
+
+    /**
+     * @return number of tasks submitted to thread pool so far
+     */
+    public long getSubmittedTaskCount() {
+        return mSubmittedTasks.sum();
+    }
+
+    /**
+     * Completes search result. Called by thread which completed last task,
+     * so dependent actions of result future run on that thread.
+     * Does nothing if search was stopped earlier - result is completed only once.
+     */
+    private void finishSearch() {
+        completeResult(mStopped);
+    }
+
+    /**
+     * Stops search and completes its result as partial.
+     */
+    private void stopSearch() {
+        mStopped = true;
+        completeResult(true);
+    }
+
+    /**
+     * Stops search and completes its result exceptionally.
+     * @param throwable - cause of failure
+     */
+    private void failSearch(Throwable throwable) {
+        mStopped = true;
+        mResult.completeExceptionally(throwable);
+    }
+
+    private void completeResult(boolean partial) {
+        if (!mResult.isDone()) {
+            mResult.complete(createResult(partial));
+        }
+    }
+
+    /**
+     * @param partial - true if search did not visit all rooms it should have
+     * @return result of search state so far
+     */
+    private SearchResult createResult(boolean partial) {
+        return new SearchResult(exitFound(), getShortestDistanceToExit(), getVisitedRoomCount(),
+                getSubmittedTaskCount(), mPrunedRooms.sum(), mBoundImprovements.sum(),
+                System.nanoTime() - mStartNanos, partial, getShortestPathToExit(), getExits());
+    }
+
+    /**
+     * Computes lower bound of distance of any exit reachable from room.
+     * @param room - room which is not an exit
+     * @param distance - room distance from entrance
+     * @return room distance, plus heuristic estimate if heuristic is set
+     */
+    private double getExitDistanceLowerBound(RoomInterface room, double distance) {
+        if (mHeuristic == null) {
+            return distance;
+        }
+        return distance + mHeuristic.estimateDistanceToExit(room);
+    }
+
+    /**
+     * Computes lower bound of distance of any exit reachable from room of LabyrinthGraph. Heuristic is given
+     * room adapter, so it is allocated only when heuristic is set.
+     * @param labyrinth - searched labyrinth
+     * @param room - room id
+     * @return room distance, plus heuristic estimate if heuristic is set and room is not an exit
+     */
+    private double getCompactExitDistanceLowerBound(LabyrinthGraph labyrinth, int room) {
+        double distance = labyrinth.getDistanceFromStart(room);
+        if (mHeuristic == null || labyrinth.isExit(room)) {
+            return distance;
+        }
+        return distance + mHeuristic.estimateDistanceToExit(new CompactRoom(labyrinth, room));
+    }
+
+    /**
+     * Computes priority of VisitRoomTask. With SchedulingStrategy.BEST_FIRST it is room distance, and
+     * with heuristic rooms are ordered as in A* - by distance plus estimate of remaining distance.
+     * Otherwise priority is not used, and parent distance is taken, so room methods are not called here.
+     * @param room - room to visit
+     * @param distanceFromParentRoom - room parent distance
+     * @return task priority
+     */
+    private double getTaskPriority(RoomInterface room, double distanceFromParentRoom) {
+        if (mSchedulingStrategy != SchedulingStrategy.BEST_FIRST || room == null) {
+            return distanceFromParentRoom;
+        }
+        return room.isExit() ? room.getDistanceFromStart()
+                : getExitDistanceLowerBound(room, room.getDistanceFromStart());
+    }
+
+    /**
+     * Checks corridor before it is scheduled for visit. With eager child pruning, exit is visited at once,
+     * and corridor which is not closer than exit found is skipped, so neither of them is ever queued.
+     * When many exits are searched for, exit is queued like other rooms, as its corridors are visited too.
+     * @param corridor - corridor of visited room
+     * @param parentNode - route to visited room, null if routes are not tracked
+     * @return true if corridor should be scheduled for visit
+     */
+    private boolean shouldScheduleCorridor(RoomInterface corridor, PathNode parentNode) {
+        if (!mEagerChildPruning || corridor == null) {
+            return true;
+        }
+        boolean exit = corridor.isExit();
+        if (exit && mNearestExits == null) {
+            visitRoom(corridor, parentNode);
+            return false;
+        }
+        double distance = corridor.getDistanceFromStart();
+        if (isCloserThanBound(exit ? distance : getExitDistanceLowerBound(corridor, distance))) {
+            return true;
+        }
+        mPrunedRooms.increment();
+        return false;
+    }
+
+    /**
+     * Checks if room may lead to exit which is still searched for - closer than closest exit found,
+     * or, when many exits are searched for, closer than the farthest one which would be kept.
+     * @param distance - room distance, or lower bound of distance of exits reachable from it
+     * @return true if room should be visited
+     */
+    private boolean isCloserThanBound(double distance) {
+        if (mNearestExits != null) {
+            // entrance has no parent, and is always visited
+            return distance == INITIAL_ENTRANCE_DISTANCE || mNearestExits.isCloserThanBound(distance);
+        }
+        return mShortestDistanceToExit.isCloserThanBound(distance);
+    }
+
+    /**
+     * Checks if room with given parent distance may lead to closer exit, and counts rooms pruned.
+     * @param parentDistance - room parent distance
+     * @return true if room should be visited
+     */
+    private boolean isWorthVisiting(double parentDistance) {
+        if (isCloserThanBound(parentDistance)) {
+            return true;
+        }
+        mPrunedRooms.increment();
+        return false;
+    }
+
+    private long startBusyTime() {
+        return mStats == null ? 0L : mStats.startBusyTime();
+    }
+
+    private void recordBusyTime(long start) {
+        if (mStats != null) {
+            mStats.recordBusyTime(start);
+        }
+    }
+
+    /**
+     * Checks if search should be stopped. Stops it when time limit is exceeded.
+     * @return true if queued rooms should be dropped
+     */
+    private boolean shouldStop() {
+        if (mStopped) {
+            return true;
+        }
+        if (mTimeoutNanos > 0 && System.nanoTime() - mStartNanos >= mTimeoutNanos) {
+            stopSearch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Offers exit distance to shared bound. Bound is never increased, so concurrent
+     * offers from different threads can not regress the best distance found.
+     * @param distance - exit distance from entrance
+     * @param exitNode - route to exit, null if routes are not tracked
+     */
+    private void setShortestDistanceToExit(double distance, PathNode exitNode) {
+        if (exitNode != null) {
+            // route is replaced only by shorter one, the same way as bound
+            PathNode current = mShortestPath.get();
+            while ((current == null || Double.compare(distance, current.getDistance()) < 0)
+                    && !mShortestPath.compareAndSet(current, exitNode)) {
+                current = mShortestPath.get();
+            }
+        }
+        if (mShortestDistanceToExit.offer(distance)) {
+            mBoundImprovements.increment();
+        }
+    }
+
+    /**
+     * Creates route link of visited room.
+     * @param room - visited room
+     * @param parentNode - route to parent room
+     * @return route to room, or null if routes are not tracked
+     */
+    private PathNode createPathNode(RoomInterface room, PathNode parentNode) {
+        return mTrackShortestPath ? new PathNode(room, room.getDistanceFromStart(), parentNode) : null;
+    }
+
+    /**
+     * Adds new rooms to queue. Executor queue is thread safe, so no additional locking is needed.
+     * @param room - room to visit
+     * @param distanceToParentRoom - room parent distance
+     * @param parentNode - route to parent room, null if routes are not tracked
+     */
+    private void addNewRoomsToVisit(RoomInterface room, double distanceToParentRoom, PathNode parentNode) {
+        // increment running visits count
+        mActiveVisits.incrementAndGet();
+        mSubmittedTasks.increment();
+        // push new task to main thread pool
+        try {
+            mExecutor.execute(new VisitRoomTask(room, distanceToParentRoom, parentNode));
+        } catch (RejectedExecutionException e) {
+            rejectTask(e);
+        }
+    }
+
+    /**
+     * Submits task visiting rooms of compact labyrinth.
+     * @param task - task to run
+     */
+    private void addCompactRoomsToVisit(VisitCompactRoomsTask task) {
+        mActiveVisits.incrementAndGet();
+        mSubmittedTasks.increment();
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectTask(e);
+        }
+    }
+
+    /**
+     * Undoes counting of task which thread pool refused, for example because it was shut down,
+     * and fails the search - its result would never be complete without the task.
+     * @param e - rejection of task
+     */
+    private void rejectTask(RejectedExecutionException e) {
+        mSubmittedTasks.decrement();
+        mActiveVisits.decrementAndGet();
+        failSearch(e);
+    }
+
+    /**
+     * Gets room corridors, for Corridors.count() and Corridors.get(). IndexedRoom is read by index, unless
+     * room loads are limited. When they are, waits for permit first, and then calls corridors()
+     * in ForkJoinPool.managedBlock(), so fork/join pool can start spare thread while this one is loading.
+     * Threads waiting for permit are not compensated, so there are at most as many spare threads as permits.
+     * @param room - room which is not an exit
+     * @return room corridors, or null if thread was interrupted - search is then stopped
+     */
+    private RoomInterface[] loadCorridors(RoomInterface room) {
+        if (mRoomLoads == null) {
+            return Corridors.read(room);
+        }
+        try {
+            mRoomLoads.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopSearch();
+            return null;
+        }
+        try {
+            CorridorsLoader loader = new CorridorsLoader(room);
+            ForkJoinPool.managedBlock(loader);
+            return loader.corridors;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopSearch();
+            return null;
+        } finally {
+            mRoomLoads.release();
+        }
+    }
+
+    /**
+     * Visits room, and updates search info if necessary
+     * @param room - room to visit
+     * @param parentNode - route to parent room, null if routes are not tracked
+     * @return - corridors which should be visited next, or null if this room is an exit and only closest exit
+     * is searched for, has no corridors, or is farther than current exit. Read them by Corridors.count()
+     * and Corridors.get()
+     */
+    private RoomInterface[] visitRoom(RoomInterface room, PathNode parentNode) {
+        // room reachable by many corridors is visited only once - its distance does not depend on path
+        if (mVisitedRoomSet != null && !mVisitedRoomSet.add(room)) {
+            return null;
+        }
+        mVisitedRooms.increment();
+        RoomInterface[] corridorsToVisit = null;
+        // check if room is exit
+        if (room.isExit()) {
+            // update info about exit found - bound keeps only the closest exit
+            double exitDistance = room.getDistanceFromStart();
+            setShortestDistanceToExit(exitDistance, createPathNode(room, parentNode));
+            if (mNearestExits != null) {
+                mNearestExits.offer(room, exitDistance);
+                // more exits may lie behind this one, they are kept if closer than farthest exit kept
+                RoomInterface[] corridors = loadCorridors(room);
+                if (Corridors.count(room, corridors) > 0 && isCloserThanBound(exitDistance)) {
+                    corridorsToVisit = corridors;
+                }
+            }
+            // stop at once if exit is good enough
+            if (Double.compare(exitDistance, mStopDistance) <= 0) {
+                stopSearch();
+            }
+        } else {
+            RoomInterface[] corridors = loadCorridors(room);
+            // if this room is not an exit, check if it is closer than any exit found earlier - if not, then skip
+            // this room corridors, their distance would be greater than current exit, so its bad :)
+            // With heuristic, room is skipped also when its distance plus estimate is not closer.
+            if (Corridors.count(room, corridors) > 0
+                    && isCloserThanBound(
+                            getExitDistanceLowerBound(room, room.getDistanceFromStart()))) {
+                corridorsToVisit = corridors;
+            }
+        }
+        return corridorsToVisit;
+    }
+
+    /**
+     * Blocking corridors() call, made while holding one of mRoomLoads permits.
+     */
+    private class CorridorsLoader implements ForkJoinPool.ManagedBlocker {
+
+        private final RoomInterface room;
+        private RoomInterface[] corridors;
+        private boolean loaded;
+
+        public CorridorsLoader(RoomInterface room) {
+            this.room = room;
+        }
+
+        @Override
+        public boolean block() {
+            corridors = room.corridors();
+            loaded = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return loaded;
+        }
+    }
+
+    /**
+     * Runnable task for visiting rooms in labyrinth.
+     * It is executed by threads in ThreadPoolExecutor
+     */
+    private class VisitRoomTask extends PrioritizedTask {
+
+        /** Room object for visit */
+        private RoomInterface room;
+        /** This room parent-room distance from entrance */
+        private double distanceFromParentRoom;
+        /** Route to parent room, null if routes are not tracked */
+        private PathNode parentNode;
+
+        public VisitRoomTask(RoomInterface room, double distanceFromParentRoom, PathNode parentNode) {
+            // tasks are ordered by distance of their room from entrance - closer rooms go first
+            super(getTaskPriority(room, distanceFromParentRoom));
+            this.room = room;
+            this.distanceFromParentRoom = distanceFromParentRoom;
+            this.parentNode = parentNode;
+        }
+
+        /**
+         * This method processes one room from executor queue
+         * 0.   It checks validity of labyrinth - corridors must have greater distance than their parent room.
+         * 1.   It checks, if this room parent distance is closer than currently found exit.
+         *      if no exit was found, it assumes that this room is an entrance,
+         *      or a good candidate for searching - there might be an exit after this room.
+         * 2.   Then it checks, if this room is not null, and then launches synchronized block of code
+         *      visitRoom() which updates shared information if necessary.
+         * 3.   If no exit was found, and this room has corridors,
+         *      then it pushes them to mExecutor task queue.
+         * When batch size is greater than 1, corridors are visited by this task, see visitBatch().
+         */
+        @Override
+        public void run() {
+            long busyStart = startBusyTime();
+            try {
+                if (shouldStop()) {
+                    // search is over - drop this room
+                } else if (mBatchSize > 1) {
+                    visitBatch(mBatchSize);
+                } else if (isParentRoomCloserThenCurrentExitFound()) {
+                    // check if room is not null
+                    if (room != null) {
+                        RoomInterface[] corridors = visitRoom(room, parentNode);
+                        if (corridors != null) {
+                            // Add every corridor to thread task pool
+                            double roomDistance = room.getDistanceFromStart();
+                            PathNode roomNode = createPathNode(room, parentNode);
+                            int corridorCount = Corridors.count(room, corridors);
+                            for (int i = 0; i < corridorCount; i++) {
+                                RoomInterface corridor = Corridors.get(room, corridors, i);
+                                if (shouldScheduleCorridor(corridor, roomNode)) {
+                                    addNewRoomsToVisit(corridor, roomDistance, roomNode);
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                // room method failed - result is completed with the failure
+                failSearch(t);
+            } finally {
+                recordBusyTime(busyStart);
+                // decrement running visits count
+                int activeVisits = mActiveVisits.decrementAndGet();
+                // check if this is a last visit
+                if (activeVisits == 0) {
+                    finishSearch();
+                }
+            }
+        }
+
+        /**
+         * Visits up to batchSize rooms, starting with this task room, depth first.
+         * Corridors are kept on local stack while it has free space, and submitted to mExecutor otherwise,
+         * so other threads are not starved. Rooms left on stack after batch is done are submitted as well.
+         * @param batchSize - max rooms visited by this task
+         */
+        private void visitBatch(int batchSize) {
+            RoomInterface[] stackRooms = new RoomInterface[batchSize];
+            double[] stackParentDistances = new double[batchSize];
+            PathNode[] stackParentNodes = mTrackShortestPath ? new PathNode[batchSize] : null;
+            stackRooms[0] = room;
+            stackParentDistances[0] = distanceFromParentRoom;
+            if (stackParentNodes != null) {
+                stackParentNodes[0] = parentNode;
+            }
+            int stackSize = 1;
+            int visited = 0;
+            while (stackSize > 0 && visited < batchSize && !shouldStop()) {
+                stackSize--;
+                RoomInterface current = stackRooms[stackSize];
+                double parentDistance = stackParentDistances[stackSize];
+                PathNode currentParentNode = null;
+                stackRooms[stackSize] = null;
+                if (stackParentNodes != null) {
+                    currentParentNode = stackParentNodes[stackSize];
+                    stackParentNodes[stackSize] = null;
+                }
+                if (current == null || !isWorthVisiting(parentDistance)) {
+                    continue;
+                }
+                visited++;
+                RoomInterface[] corridors = visitRoom(current, currentParentNode);
+                if (corridors != null) {
+                    double roomDistance = current.getDistanceFromStart();
+                    PathNode roomNode = createPathNode(current, currentParentNode);
+                    int corridorCount = Corridors.count(current, corridors);
+                    for (int i = 0; i < corridorCount; i++) {
+                        RoomInterface corridor = Corridors.get(current, corridors, i);
+                        if (!shouldScheduleCorridor(corridor, roomNode)) {
+                            continue;
+                        }
+                        if (stackSize < batchSize) {
+                            stackRooms[stackSize] = corridor;
+                            stackParentDistances[stackSize] = roomDistance;
+                            if (stackParentNodes != null) {
+                                stackParentNodes[stackSize] = roomNode;
+                            }
+                            stackSize++;
+                        } else {
+                            addNewRoomsToVisit(corridor, roomDistance, roomNode);
+                        }
+                    }
+                }
+            }
+            // hand surplus work back to shared thread pool, unless search is over
+            while (stackSize > 0 && !mStopped) {
+                stackSize--;
+                addNewRoomsToVisit(stackRooms[stackSize], stackParentDistances[stackSize],
+                        stackParentNodes != null ? stackParentNodes[stackSize] : null);
+            }
+        }
+
+        /**
+         * This method checks if room parent has has shorter distance.
+         * @return
+         */
+        private boolean isParentRoomCloserThenCurrentExitFound() {
+            // if no exit was found earlier, assume this room is a good candidate for search, or it is an entrance
+            return isWorthVisiting(distanceFromParentRoom);
+        }
+    }
+
+    /**
+     * Fork/join task visiting whole subtree of labyrinth.
+     * Every corridor except the last one is forked to worker local deque, where it can be stolen by idle workers.
+     * The last corridor is visited in current task, so deep chains do not create new tasks.
+     * Tasks never block on join - each one completes when all its forked children complete,
+     * and completion of the root task finishes the search.
+     */
+    private class VisitSubtreeTask extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Room object for visit */
+        private RoomInterface room;
+        /** This room parent-room distance from entrance */
+        private double distanceFromParentRoom;
+        /** Route to parent room, null if routes are not tracked */
+        private PathNode parentNode;
+
+        public VisitSubtreeTask(VisitSubtreeTask parent, RoomInterface room, double distanceFromParentRoom,
+                                PathNode parentNode) {
+            super(parent);
+            this.room = room;
+            this.distanceFromParentRoom = distanceFromParentRoom;
+            this.parentNode = parentNode;
+        }
+
+        @Override
+        public void compute() {
+            long busyStart = startBusyTime();
+            RoomInterface current = room;
+            double parentDistance = distanceFromParentRoom;
+            PathNode currentParentNode = parentNode;
+            try {
+                while (current != null && !shouldStop() && isWorthVisiting(parentDistance)) {
+                    RoomInterface[] corridors = visitRoom(current, currentParentNode);
+                    if (corridors == null) {
+                        break;
+                    }
+                    double roomDistance = current.getDistanceFromStart();
+                    PathNode roomNode = createPathNode(current, currentParentNode);
+                    // fork every scheduled corridor but the last one, which is walked by this task
+                    RoomInterface next = null;
+                    int corridorCount = Corridors.count(current, corridors);
+                    for (int i = 0; i < corridorCount; i++) {
+                        RoomInterface corridor = Corridors.get(current, corridors, i);
+                        if (!shouldScheduleCorridor(corridor, roomNode)) {
+                            continue;
+                        }
+                        if (next != null) {
+                            addToPendingCount(1);
+                            mSubmittedTasks.increment();
+                            new VisitSubtreeTask(this, next, roomDistance, roomNode).fork();
+                        }
+                        next = corridor;
+                    }
+                    current = next;
+                    parentDistance = roomDistance;
+                    currentParentNode = roomNode;
+                }
+            } catch (Throwable t) {
+                // room method failed - result is completed with the failure, and forked tasks drop their rooms
+                failSearch(t);
+            }
+            recordBusyTime(busyStart);
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            // only root task has no completer
+            if (getCompleter() == null) {
+                finishSearch();
+            }
+        }
+    }
+
+    /**
+     * Task visiting rooms of LabyrinthGraph, depth first from its local stack of room ids.
+     * Rooms are read straight from labyrinth arrays or buffers, so visiting a room allocates nothing.
+     * When the stack grows above COMPACT_SPLIT_THRESHOLD, its bottom half - rooms closest to entrance,
+     * with largest subtrees - is handed to other threads as new task.
+     */
+    private class VisitCompactRoomsTask extends PrioritizedTask {
+
+        private final LabyrinthGraph labyrinth;
+        /** Stack of room ids to visit */
+        private int[] rooms;
+        /** Parent room distance of every room on stack */
+        private double[] parentDistances;
+        /** Route to parent room of every room on stack, null if routes are not tracked */
+        private PathNode[] parentNodes;
+        private int size;
+
+        public VisitCompactRoomsTask(LabyrinthGraph labyrinth, int[] rooms, double[] parentDistances,
+                                     PathNode[] parentNodes, int size) {
+            super(getCompactExitDistanceLowerBound(labyrinth, rooms[size - 1]));
+            this.labyrinth = labyrinth;
+            this.rooms = rooms;
+            this.parentDistances = parentDistances;
+            this.parentNodes = parentNodes;
+            this.size = size;
+        }
+
+        @Override
+        public void run() {
+            long busyStart = startBusyTime();
+            try {
+                while (size > 0 && !shouldStop()) {
+                    size--;
+                    int room = rooms[size];
+                    PathNode parentNode = null;
+                    if (parentNodes != null) {
+                        parentNode = parentNodes[size];
+                        parentNodes[size] = null;
+                    }
+                    if (isWorthVisiting(parentDistances[size])) {
+                        visitCompactRoom(room, parentNode);
+                    }
+                }
+            } catch (Throwable t) {
+                // labyrinth storage or heuristic failed - result is completed with the failure
+                failSearch(t);
+            } finally {
+                recordBusyTime(busyStart);
+                int activeVisits = mActiveVisits.decrementAndGet();
+                if (activeVisits == 0) {
+                    finishSearch();
+                }
+            }
+        }
+
+        /**
+         * Visits room, and pushes its corridors to local stack if they may lead to closer exit.
+         * @param room - room id
+         * @param parentNode - route to parent room, null if routes are not tracked
+         */
+        private void visitCompactRoom(int room, PathNode parentNode) {
+            if (mVisitedCompactRooms != null && !mVisitedCompactRooms.set(room)) {
+                return;
+            }
+            mVisitedRooms.increment();
+            double distance = labyrinth.getDistanceFromStart(room);
+            if (labyrinth.isExit(room)) {
+                PathNode exitNode = parentNodes != null ? new PathNode(room, distance, parentNode) : null;
+                setShortestDistanceToExit(distance, exitNode);
+                if (mNearestExits != null) {
+                    mNearestExits.offer(labyrinth.getRoom(room), distance);
+                }
+                if (Double.compare(distance, mStopDistance) <= 0) {
+                    stopSearch();
+                }
+                if (mNearestExits == null) {
+                    return;
+                }
+                // more exits may lie behind this one - lower bound of exit is its distance
+            }
+            int start = labyrinth.getCorridorStart(room);
+            int end = labyrinth.getCorridorEnd(room);
+            if (start == end || !isCloserThanBound(getCompactExitDistanceLowerBound(labyrinth, room))) {
+                return;
+            }
+            int required = size + end - start;
+            if (required > rooms.length) {
+                int capacity = Math.max(required, rooms.length * 2);
+                rooms = Arrays.copyOf(rooms, capacity);
+                parentDistances = Arrays.copyOf(parentDistances, capacity);
+                if (parentNodes != null) {
+                    parentNodes = Arrays.copyOf(parentNodes, capacity);
+                }
+            }
+            PathNode roomNode = parentNodes != null ? new PathNode(room, distance, parentNode) : null;
+            // push in reverse order, so corridors are visited in labyrinth order
+            for (int i = end - 1; i >= start; i--) {
+                int corridor = labyrinth.getCorridorTarget(i);
+                if (mEagerChildPruning) {
+                    // exits are visited at once, and rooms not closer than exit found are never pushed
+                    if (labyrinth.isExit(corridor) && mNearestExits == null) {
+                        visitCompactRoom(corridor, roomNode);
+                        continue;
+                    }
+                    if (!isCloserThanBound(getCompactExitDistanceLowerBound(labyrinth, corridor))) {
+                        mPrunedRooms.increment();
+                        continue;
+                    }
+                }
+                rooms[size] = corridor;
+                parentDistances[size] = distance;
+                if (parentNodes != null) {
+                    parentNodes[size] = roomNode;
+                }
+                size++;
+            }
+            if (size > COMPACT_SPLIT_THRESHOLD) {
+                splitStack();
+            }
+        }
+
+        /**
+         * Moves bottom half of local stack to new task.
+         */
+        private void splitStack() {
+            int half = size / 2;
+            VisitCompactRoomsTask task = new VisitCompactRoomsTask(labyrinth, Arrays.copyOf(rooms, half),
+                    Arrays.copyOf(parentDistances, half), parentNodes != null ? Arrays.copyOf(parentNodes, half) : null,
+                    half);
+            System.arraycopy(rooms, half, rooms, 0, size - half);
+            System.arraycopy(parentDistances, half, parentDistances, 0, size - half);
+            if (parentNodes != null) {
+                System.arraycopy(parentNodes, half, parentNodes, 0, size - half);
+                Arrays.fill(parentNodes, size - half, size, null);
+            }
+            size -= half;
+            addCompactRoomsToVisit(task);
+        }
+    }
+
+}
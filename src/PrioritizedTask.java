@@ -0,0 +1,26 @@
+/**
+ * Task submitted to PathFinder thread pool. With SchedulingStrategy.BEST_FIRST the pool queue orders tasks
+ * by priority, and one queue is shared by all searches, whatever kind of tasks they submit - so every
+ * such task extends this class, and tasks are comparable with each other.
+ */
+abstract class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+    /** Priority of this task, tasks with lower value are taken first */
+    private final double mPriority;
+
+    /**
+     * @param priority - priority of task, usually distance of its room, lower goes first
+     */
+    PrioritizedTask(double priority) {
+        mPriority = priority;
+    }
+
+    double getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public int compareTo(PrioritizedTask another) {
+        return Double.compare(mPriority, another.mPriority);
+    }
+}
@@ -0,0 +1,305 @@
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of room state, for rooms whose methods are expensive, for example loaded from storage.
+ * Rooms are decorated by wrap(), and every room is loaded once - isExit(), getDistanceFromStart() and
+ * corridors() are called together, and following calls of decorator are served from cache.
+ *
+ * Cache is split into independently locked segments, each one evicting least recently used rooms
+ * when weight of its rooms exceeds its share of max weight. Room weight is 1 plus number of its corridors,
+ * so rooms with many corridors take more of the cache. Room requested by many threads at once is loaded
+ * by one of them. Optionally corridors of room are loaded in background when its corridors are read,
+ * so they are cached before PathFinder visits them.
+ *
+ * Room has one decorator while anything refers to it, also after its state was evicted, so rooms reached
+ * by many corridors are the same object, as PathFinder.setDeduplicateRooms() requires.
+ */
+class RoomCache {
+
+    /** Number of independently locked segments */
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] mSegments;
+    private final LongAdder mHits;
+    private final LongAdder mMisses;
+    private final LongAdder mEvictions;
+    private final LongAdder mPrefetches;
+    /** Executor loading corridors in background, null if corridors are not prefetched */
+    private volatile Executor mPrefetchExecutor;
+
+    /**
+     * @param maxWeight - max total weight of cached rooms, where room weight is 1 plus number of its corridors
+     */
+    public RoomCache(long maxWeight) {
+        if (maxWeight < SEGMENT_COUNT) {
+            throw new IllegalArgumentException("Max weight must be at least " + SEGMENT_COUNT
+                    + ", got " + maxWeight);
+        }
+        mSegments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new Segment(maxWeight / SEGMENT_COUNT);
+        }
+        mHits = new LongAdder();
+        mMisses = new LongAdder();
+        mEvictions = new LongAdder();
+        mPrefetches = new LongAdder();
+    }
+
+    /**
+     * Enables background loading of corridors of every room whose corridors are read.
+     * @param executor - executor loading corridors, null to disable prefetch
+     */
+    public void setPrefetchExecutor(Executor executor) {
+        mPrefetchExecutor = executor;
+    }
+
+    /**
+     * Decorates room, so its state is read through this cache.
+     * @param room - room to decorate
+     * @return decorator of room, the same one for every call while it is referenced
+     */
+    public RoomInterface wrap(RoomInterface room) {
+        if (room == null) {
+            throw new NullPointerException("Room must not be null");
+        }
+        if (room instanceof CachedRoom) {
+            return room;
+        }
+        Segment segment = getSegment(room);
+        synchronized (segment) {
+            WeakReference<CachedRoom> reference = segment.mDecorators.get(room);
+            CachedRoom decorator = reference == null ? null : reference.get();
+            if (decorator == null) {
+                decorator = new CachedRoom(room, this);
+                segment.mDecorators.put(room, new WeakReference<CachedRoom>(decorator));
+            }
+            return decorator;
+        }
+    }
+
+    public long getHitCount() {
+        return mHits.sum();
+    }
+
+    public long getMissCount() {
+        return mMisses.sum();
+    }
+
+    public long getEvictionCount() {
+        return mEvictions.sum();
+    }
+
+    /**
+     * @return number of rooms loaded in background
+     */
+    public long getPrefetchCount() {
+        return mPrefetches.sum();
+    }
+
+    /**
+     * @return total weight of cached rooms
+     */
+    public long getWeight() {
+        long weight = 0L;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                weight += segment.mWeight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Returns cached room state, loading it if room is not cached. If room is being loaded by other thread,
+     * waits for it instead of loading room again.
+     * @param room - decorated room
+     * @return room state
+     */
+    RoomData get(RoomInterface room) {
+        Segment segment = getSegment(room);
+        Slot slot;
+        boolean loading = false;
+        synchronized (segment) {
+            slot = segment.mSlots.get(room);
+            if (slot == null) {
+                slot = new Slot();
+                segment.mSlots.put(room, slot);
+                loading = true;
+            }
+        }
+        if (!loading) {
+            mHits.increment();
+            try {
+                return slot.mData.join();
+            } catch (CompletionException e) {
+                // load by other thread failed and was removed from cache - try again
+                return get(room);
+            }
+        }
+        mMisses.increment();
+        return load(segment, room, slot);
+    }
+
+    /**
+     * Loads corridors of room in background, if prefetch is enabled.
+     * @param data - room state
+     */
+    void prefetch(RoomData data) {
+        Executor executor = mPrefetchExecutor;
+        if (executor == null) {
+            return;
+        }
+        for (RoomInterface corridor : data.getCorridors()) {
+            if (corridor == null) {
+                continue;
+            }
+            final RoomInterface room = ((CachedRoom) corridor).getRoom();
+            final Segment segment = getSegment(room);
+            final Slot slot;
+            synchronized (segment) {
+                if (segment.mSlots.containsKey(room)) {
+                    continue;
+                }
+                slot = new Slot();
+                segment.mSlots.put(room, slot);
+            }
+            mPrefetches.increment();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            load(segment, room, slot);
+                        } catch (RuntimeException e) {
+                            // failed room is removed from cache, so thread reading it loads it again
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // executor refused load, for example after shutdown - threads waiting for room load it again
+                mPrefetches.decrement();
+                synchronized (segment) {
+                    segment.mSlots.remove(room, slot);
+                }
+                slot.mData.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Segment getSegment(RoomInterface room) {
+        int hash = room.hashCode() * 0x9E3779B9;
+        return mSegments[(hash >>> 28) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Loads room state into its slot. Failed load is removed from cache, so it is retried by next request.
+     */
+    private RoomData load(Segment segment, RoomInterface room, Slot slot) {
+        RoomData data;
+        try {
+            RoomInterface[] corridors = room.corridors();
+            RoomInterface[] cachedCorridors = new RoomInterface[corridors == null ? 0 : corridors.length];
+            for (int i = 0; i < cachedCorridors.length; i++) {
+                cachedCorridors[i] = corridors[i] == null ? null : wrap(corridors[i]);
+            }
+            data = new RoomData(room.isExit(), room.getDistanceFromStart(), cachedCorridors);
+        } catch (RuntimeException e) {
+            synchronized (segment) {
+                segment.mSlots.remove(room, slot);
+            }
+            slot.mData.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (segment) {
+            // room might have been removed while it was loading - then it is not counted
+            if (segment.mSlots.get(room) == slot) {
+                slot.mWeight = 1 + data.getCorridors().length;
+                segment.mWeight += slot.mWeight;
+                segment.evict();
+            }
+        }
+        slot.mData.complete(data);
+        return data;
+    }
+
+    /**
+     * State of room, read once.
+     */
+    static final class RoomData {
+
+        private final boolean mExit;
+        private final double mDistanceFromStart;
+        /** Decorated corridors */
+        private final RoomInterface[] mCorridors;
+
+        RoomData(boolean exit, double distanceFromStart, RoomInterface[] corridors) {
+            mExit = exit;
+            mDistanceFromStart = distanceFromStart;
+            mCorridors = corridors;
+        }
+
+        boolean isExit() {
+            return mExit;
+        }
+
+        double getDistanceFromStart() {
+            return mDistanceFromStart;
+        }
+
+        RoomInterface[] getCorridors() {
+            return mCorridors;
+        }
+    }
+
+    /**
+     * Cached room state, being loaded or loaded.
+     */
+    private static final class Slot {
+
+        private final CompletableFuture<RoomData> mData = new CompletableFuture<RoomData>();
+        /** Weight of loaded room, 0 while room is loading */
+        private int mWeight;
+    }
+
+    /**
+     * Part of cache, guarded by its own monitor.
+     */
+    private final class Segment {
+
+        private final long mMaxWeight;
+        /** Slots in access order, least recently used first */
+        private final LinkedHashMap<RoomInterface, Slot> mSlots;
+        /** Decorator of every room, kept while anything refers to it */
+        private final WeakHashMap<RoomInterface, WeakReference<CachedRoom>> mDecorators;
+        private long mWeight;
+
+        Segment(long maxWeight) {
+            mMaxWeight = maxWeight;
+            mSlots = new LinkedHashMap<RoomInterface, Slot>(16, 0.75f, true);
+            mDecorators = new WeakHashMap<RoomInterface, WeakReference<CachedRoom>>();
+        }
+
+        /**
+         * Removes least recently used loaded rooms until weight fits limit. Rooms still loading are kept.
+         */
+        void evict() {
+            Iterator<Map.Entry<RoomInterface, Slot>> iterator = mSlots.entrySet().iterator();
+            while (mWeight > mMaxWeight && iterator.hasNext()) {
+                Slot slot = iterator.next().getValue();
+                if (slot.mWeight > 0) {
+                    iterator.remove();
+                    mWeight -= slot.mWeight;
+                    mEvictions.increment();
+                }
+            }
+        }
+    }
+}
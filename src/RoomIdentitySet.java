@@ -0,0 +1,125 @@
+/**
+ * Concurrent set of rooms, compared by identity.
+ *
+ * Rooms are spread over lock-striped open addressing tables, so threads adding different rooms
+ * rarely contend, and every entry costs one array slot instead of a map node.
+ */
+class RoomIdentitySet {
+
+    /** Number of independently locked tables, must be power of 2 */
+    private static final int STRIPE_COUNT = 64;
+    /** Initial capacity of every table, must be power of 2 */
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] mStripes;
+
+    public RoomIdentitySet() {
+        mStripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Adds room to set.
+     * @param room - room to add
+     * @return true if room was not in set before
+     */
+    public boolean add(RoomInterface room) {
+        int hash = spread(System.identityHashCode(room));
+        Stripe stripe = mStripes[hash & (STRIPE_COUNT - 1)];
+        synchronized (stripe) {
+            return stripe.add(room, hash >>> 6);
+        }
+    }
+
+    /**
+     * @param room - room to check
+     * @return true if room is in set
+     */
+    public boolean contains(RoomInterface room) {
+        int hash = spread(System.identityHashCode(room));
+        Stripe stripe = mStripes[hash & (STRIPE_COUNT - 1)];
+        synchronized (stripe) {
+            return stripe.contains(room, hash >>> 6);
+        }
+    }
+
+    /**
+     * @return number of rooms in set
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.mSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Mixes bits of identity hash code, so both stripe and slot indexes are well distributed.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Open addressing table with linear probing. Guarded by its own monitor.
+     */
+    private static final class Stripe {
+
+        private Object[] mTable = new Object[INITIAL_STRIPE_CAPACITY];
+        private int mSize;
+
+        boolean add(Object room, int hash) {
+            int mask = mTable.length - 1;
+            int index = hash & mask;
+            Object current;
+            while ((current = mTable[index]) != null) {
+                if (current == room) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            mTable[index] = room;
+            mSize++;
+            // keep load factor below 0.5, so probe sequences stay short
+            if (mSize * 2 > mTable.length) {
+                resize();
+            }
+            return true;
+        }
+
+        boolean contains(Object room, int hash) {
+            int mask = mTable.length - 1;
+            int index = hash & mask;
+            Object current;
+            while ((current = mTable[index]) != null) {
+                if (current == room) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        private void resize() {
+            Object[] oldTable = mTable;
+            Object[] newTable = new Object[oldTable.length * 2];
+            int mask = newTable.length - 1;
+            for (Object room : oldTable) {
+                if (room != null) {
+                    int index = (spread(System.identityHashCode(room)) >>> 6) & mask;
+                    while (newTable[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    newTable[index] = room;
+                }
+            }
+            mTable = newTable;
+        }
+    }
+}
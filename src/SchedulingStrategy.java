@@ -0,0 +1,9 @@
+/**
+ * Order in which PathFinder visits rooms waiting in its task queue.
+ */
+enum SchedulingStrategy {
+    /** Rooms are visited in order they were discovered (breadth-like order) */
+    FIFO,
+    /** Rooms closest to entrance are visited first, so good exit bound is found early */
+    BEST_FIRST
+}
@@ -0,0 +1,9 @@
+/**
+ * Kind of thread pool used by PathFinder to visit rooms.
+ */
+enum SearchEngine {
+    /** Fixed thread pool with one shared task queue, one task per room */
+    EXECUTOR,
+    /** Fork/join pool with per-worker deques, one task per subtree and work stealing between idle workers */
+    FORK_JOIN
+}
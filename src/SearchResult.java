@@ -0,0 +1,112 @@
+import java.util.List;
+
+/**
+ * Immutable result of finished search, with basic statistics.
+ */
+class SearchResult {
+
+    /** True if any exit was found */
+    private final boolean mExitFound;
+    /** Shortest distance to exit, Double.MAX_VALUE if no exit was found */
+    private final double mShortestDistanceToExit;
+    /** Number of rooms visited during search */
+    private final long mVisitedRoomCount;
+    /** Number of tasks submitted to thread pool during search */
+    private final long mSubmittedTaskCount;
+    /** Number of rooms skipped because their parent was not closer than exit found */
+    private final long mPrunedRoomCount;
+    /** Number of times shortest distance to exit was improved */
+    private final long mBoundImprovementCount;
+    /** Time between search start and finish */
+    private final long mElapsedNanos;
+    /** True if search was stopped before whole labyrinth was searched */
+    private final boolean mPartial;
+    /** Rooms from entrance to closest exit, empty if no exit was found or route was not tracked */
+    private final List<RoomInterface> mShortestPath;
+    /** Exits found by query for many exits, closest first, empty for query for the closest exit */
+    private final List<RoomInterface> mExits;
+
+    public SearchResult(boolean exitFound, double shortestDistanceToExit, long visitedRoomCount,
+                        long submittedTaskCount, long prunedRoomCount, long boundImprovementCount,
+                        long elapsedNanos, boolean partial, List<RoomInterface> shortestPath,
+                        List<RoomInterface> exits) {
+        mExitFound = exitFound;
+        mShortestDistanceToExit = shortestDistanceToExit;
+        mVisitedRoomCount = visitedRoomCount;
+        mSubmittedTaskCount = submittedTaskCount;
+        mPrunedRoomCount = prunedRoomCount;
+        mBoundImprovementCount = boundImprovementCount;
+        mElapsedNanos = elapsedNanos;
+        mPartial = partial;
+        mShortestPath = shortestPath;
+        mExits = exits;
+    }
+
+    public boolean isExitFound() {
+        return mExitFound;
+    }
+
+    public double getShortestDistanceToExit() {
+        return mShortestDistanceToExit;
+    }
+
+    public long getVisitedRoomCount() {
+        return mVisitedRoomCount;
+    }
+
+    public long getSubmittedTaskCount() {
+        return mSubmittedTaskCount;
+    }
+
+    public long getPrunedRoomCount() {
+        return mPrunedRoomCount;
+    }
+
+    public long getBoundImprovementCount() {
+        return mBoundImprovementCount;
+    }
+
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * @return true if search was cancelled, timed out or stopped at good enough exit,
+     * so shorter path to exit may exist
+     */
+    public boolean isPartial() {
+        return mPartial;
+    }
+
+    /**
+     * @return unmodifiable list of rooms from entrance to closest exit found, empty if no exit was found
+     * or route was not tracked, see PathFinder.setTrackShortestPath()
+     */
+    public List<RoomInterface> getShortestPath() {
+        return mShortestPath;
+    }
+
+    /**
+     * @return unmodifiable list of exits found by PathFinder.searchNearestExits() or
+     * PathFinder.searchExitsWithinDistance(), closest first, empty for other searches
+     */
+    public List<RoomInterface> getExits() {
+        return mExits;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult{" +
+                "exitFound=" + mExitFound +
+                ", shortestDistanceToExit=" + mShortestDistanceToExit +
+                ", visitedRoomCount=" + mVisitedRoomCount +
+                ", submittedTaskCount=" + mSubmittedTaskCount +
+                ", prunedRoomCount=" + mPrunedRoomCount +
+                ", boundImprovementCount=" + mBoundImprovementCount +
+                ", elapsedNanos=" + mElapsedNanos +
+                ", partial=" + mPartial +
+                ", shortestPathLength=" + mShortestPath.size() +
+                ", exitCount=" + mExits.size() +
+                '}';
+    }
+}